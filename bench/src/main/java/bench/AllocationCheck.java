@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+// Runs KernelBenchmark under -prof gc and exits with status 1 if any kernel allocates.
+// Whatever JMH itself allocates per operation is spread over size^2 pixels, so anything
+// at or above MAX_BYTES_PER_PIXEL really is per-pixel garbage.
+//
+//     java -cp bench/target/benchmarks.jar bench.AllocationCheck
+public class AllocationCheck
+{
+    private static final double MAX_BYTES_PER_PIXEL = 0.01;
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(KernelBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(1))
+                .build()).run();
+
+        boolean allocates = false;
+        for (RunResult result : results)
+        {
+            double size = Double.parseDouble(result.getParams().getParam("size"));
+            Result<?> allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            double bytesPerPixel = allocation.getScore() / (size * size);
+            boolean ok = bytesPerPixel < MAX_BYTES_PER_PIXEL;
+            allocates |= !ok;
+
+            System.out.printf("%-40s size=%-6.0f %10.5f B/pixel %s%n", result.getParams().getBenchmark(),
+                    size, bytesPerPixel, ok ? "OK" : "ALLOCATES");
+        }
+
+        System.exit(allocates ? 1 : 0);
+    }
+}
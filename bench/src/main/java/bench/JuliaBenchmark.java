@@ -0,0 +1,101 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One operation per complete image. drawingThreads is JuliaClassic.drawJulia as main
+// used to call it, starting its threads for every image; model draws on a RenderPool
+// that lives for the whole trial with each of the WorkScheduler models.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JuliaBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class Threads
+    {
+        @Param({"256", "1024", "2048"})
+        public int size;
+
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+
+        // A connected set with a large interior, the expensive case.
+        @Param({"-0.4"})
+        public double a;
+
+        @Param({"0.6"})
+        public double b;
+
+        int[] imageData;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            imageData = new int[size * size];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Models
+    {
+        @Param({"256", "1024", "2048"})
+        public int size;
+
+        @Param({"2", "4", "8"})
+        public int threads;
+
+        @Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+        public int model;
+
+        @Param({"-0.4"})
+        public double a;
+
+        @Param({"0.6"})
+        public double b;
+
+        int[] imageData;
+        Object pool;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            imageData = new int[size * size];
+            Targets.blockSize(2);
+            pool = Targets.newRenderPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            Targets.shutdownRenderPool(pool);
+        }
+    }
+
+    @Benchmark
+    public void drawingThreads(Threads state)
+    {
+        Targets.juliaDraw(state.imageData, state.a, state.b, state.size, state.threads);
+    }
+
+    @Benchmark
+    public void model(Models state)
+    {
+        Targets.juliaDraw(state.pool, state.model, state.imageData, state.a, state.b, state.size);
+    }
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The single-threaded span kernels on their own, one complete image per operation.
+// AllocationCheck runs these under the GC profiler to prove they allocate nothing.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class KernelBenchmark
+{
+    private static final double PERLIN_WIDTH = 15.0;
+    private static final double PERLIN_HEIGHT = 15.0;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    private int[] buffer;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        buffer = new int[size * size];
+    }
+
+    @Benchmark
+    public void perlinRows()
+    {
+        final double xScale = PERLIN_WIDTH / size;
+        for (int row = 0; row < size; row++)
+        {
+            final double y = PERLIN_HEIGHT - (PERLIN_HEIGHT / size * row);
+            Targets.perlinRowKernel(buffer, row * size, 0, size, xScale, 0.0, y);
+        }
+    }
+
+    @Benchmark
+    public void perlinVectorRows()
+    {
+        final double xScale = PERLIN_WIDTH / size;
+        for (int row = 0; row < size; row++)
+        {
+            final double y = PERLIN_HEIGHT - (PERLIN_HEIGHT / size * row);
+            Targets.perlinVectorRowKernel(buffer, row * size, 0, size, xScale, 0.0, y);
+        }
+    }
+
+    @Benchmark
+    public void juliaRows()
+    {
+        Targets.juliaUseVectorKernel(false);
+        for (int row = 0; row < size; row++)
+        {
+            Targets.juliaRowKernel(buffer, size, row, 0, size, -0.4, 0.6);
+        }
+    }
+
+    @Benchmark
+    public void juliaVectorRows()
+    {
+        Targets.juliaUseVectorKernel(true);
+        for (int row = 0; row < size; row++)
+        {
+            Targets.juliaRowKernel(buffer, size, row, 0, size, -0.4, 0.6);
+        }
+    }
+}
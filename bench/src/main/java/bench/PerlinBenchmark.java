@@ -0,0 +1,183 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One operation is one complete image, so ops/s * size^2 is pixels/s. RunBenchmarks
+// does that conversion (and the per-pixel allocation one) for you. The threaded models
+// draw on a RenderPool that lives for the whole trial, as Perlin2D.main does.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerlinBenchmark
+{
+    // Single-threaded PerlinDrawer.runCompleteDraw, the baseline for every model.
+    @State(Scope.Benchmark)
+    public static class Serial
+    {
+        @Param({"256", "1024", "2048"})
+        public int size;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            Targets.perlinFrame(size, 2);
+        }
+    }
+
+    // The models that do not care about BLOCK_SIZE.
+    @State(Scope.Benchmark)
+    public static class Models
+    {
+        @Param({"256", "1024", "2048"})
+        public int size;
+
+        @Param({"2", "4", "8"})
+        public int threads;
+
+        // 1: row stride, 3: pixel stride, 4: next free row, 5: next free pixel,
+        // 7: guided next free, 8: fork/join tiles
+        @Param({"1", "3", "4", "5", "7", "8"})
+        public int model;
+
+        Object pool;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            Targets.perlinFrame(size, 2);
+            pool = Targets.newRenderPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            Targets.shutdownRenderPool(pool);
+        }
+    }
+
+    // The block models, swept over BLOCK_SIZE and BLOCK_WIDTH as well: blockWidth 0 is
+    // the bands of blockSize whole rows, otherwise the blocks are blockWidth x blockSize
+    // tiles taken in Hilbert order.
+    @State(Scope.Benchmark)
+    public static class BlockModels
+    {
+        @Param({"256", "1024", "2048"})
+        public int size;
+
+        @Param({"2", "4", "8"})
+        public int threads;
+
+        // 2: block stride, 6: next free block
+        @Param({"2", "6"})
+        public int model;
+
+        @Param({"2", "8", "32"})
+        public int blockSize;
+
+        @Param({"0", "32", "128"})
+        public int blockWidth;
+
+        Object pool;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            Targets.perlinFrame(size, blockWidth, blockSize);
+            pool = Targets.newRenderPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            Targets.shutdownRenderPool(pool);
+        }
+    }
+
+    // The pixel models drawing into the row-major BUFFER, where neighbouring threads
+    // write neighbouring ints, against drawing into a CacheLineFrame a cache line at a
+    // time. tiled includes turning the frame back into a row-major image, as Perlin2D
+    // does before it shows or writes one.
+    @State(Scope.Benchmark)
+    public static class Layouts
+    {
+        @Param({"256", "1024", "2048"})
+        public int size;
+
+        @Param({"2", "4", "8"})
+        public int threads;
+
+        // 3: pixel stride, 5: next free pixel
+        @Param({"3", "5"})
+        public int model;
+
+        @Param({"linear", "tiled"})
+        public String layout;
+
+        Object pool;
+        Object frame;
+        int[] image;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            Targets.perlinFrame(size, 2);
+            pool = Targets.newRenderPool(threads);
+            frame = layout.equals("tiled") ? Targets.newCacheLineFrame(size) : null;
+            image = new int[size * size];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            Targets.shutdownRenderPool(pool);
+        }
+    }
+
+    @Benchmark
+    public void runCompleteDraw(Serial state)
+    {
+        Targets.perlinRunCompleteDraw();
+    }
+
+    @Benchmark
+    public void model(Models state)
+    {
+        Targets.perlinDrawImage(state.pool, state.model);
+    }
+
+    @Benchmark
+    public void blockModel(BlockModels state)
+    {
+        Targets.perlinDrawImage(state.pool, state.model);
+    }
+
+    @Benchmark
+    public void layout(Layouts state)
+    {
+        if (state.frame == null)
+        {
+            Targets.perlinDrawImage(state.pool, state.model);
+        }
+        else
+        {
+            Targets.perlinDrawImage(state.pool, state.model, state.frame);
+            Targets.cacheLineFrameToLinear(state.frame, state.image);
+        }
+    }
+}
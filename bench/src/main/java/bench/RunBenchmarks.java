@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks (accepting the usual JMH command line, e.g. a regex and -p size=1024)
+// with the GC profiler attached, then restates every result per pixel:
+//
+//     java -cp bench/target/benchmarks.jar bench.RunBenchmarks Perlin -p threads=4
+//
+// Every benchmark must have a "size" parameter and draw one size x size image per op.
+// Before JDK 21 the GC profiler can only sum allocations of threads that are still alive
+// when it samples, so bytes allocated by short-lived drawing threads may be missed. The pom
+// targets Java 17, so on anything older than 21 the B/pixel of a result with more than one
+// thread is only a lower bound: it is marked with a * and a note follows the table.
+public class RunBenchmarks
+{
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        final boolean threadAllocationsMissed = Runtime.version().feature() < 21;
+        boolean marked = false;
+        System.out.printf("%-40s %-40s %16s %12s%n", "Benchmark", "Params", "Mpixels/s", "B/pixel");
+        for (RunResult result : results)
+        {
+            String name = result.getParams().getBenchmark();
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+
+            StringBuilder params = new StringBuilder();
+            for (String key : result.getParams().getParamsKeys())
+            {
+                params.append(key).append('=').append(result.getParams().getParam(key)).append(' ');
+            }
+
+            double size = Double.parseDouble(result.getParams().getParam("size"));
+            double pixels = size * size;
+
+            double imagesPerSecond = result.getPrimaryResult().getScore();
+            Result<?> allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            double bytesPerPixel = allocation == null ? Double.NaN : allocation.getScore() / pixels;
+
+            String threads = result.getParams().getParam("threads");
+            boolean lowerBound = threadAllocationsMissed && threads != null && Integer.parseInt(threads) > 1;
+            marked |= lowerBound;
+
+            System.out.printf("%-40s %-40s %16.3f %12.3f%s%n", name, params.toString().trim(),
+                    imagesPerSecond * pixels / 1e6, bytesPerPixel, lowerBound ? "*" : "");
+        }
+        if (marked)
+        {
+            System.out.printf("* JDK %d: the GC profiler misses allocations of drawing threads that have ended,"
+                    + " these B/pixel are lower bounds (exact from JDK 21)%n", Runtime.version().feature());
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// JMH refuses to generate code for benchmarks in the default package, and classes in a
+// named package cannot import default-package classes. The renderers therefore get
+// looked up by name once and called through static final method handles, which the JIT
+// inlines just like a direct call.
+final class Targets
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> PERLIN = load("Perlin2D");
+    private static final Class<?> PERLIN_DRAWER = load("PerlinDrawer");
+    private static final Class<?> JULIA = load("JuliaClassic");
+    private static final Class<?> RENDER_POOL = load("RenderPool");
+    private static final Class<?> SCHEDULER = load("WorkScheduler");
+    private static final Class<?> CACHE_LINE_FRAME = load("CacheLineFrame");
+
+    private static final MethodHandle PERLIN_DRAW_IMAGE =
+            findStatic(PERLIN, "drawImage", MethodType.methodType(void.class, RENDER_POOL, int.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class));
+    private static final MethodHandle PERLIN_DRAW_TILED =
+            findStatic(PERLIN, "drawImage", MethodType.methodType(void.class, RENDER_POOL, int.class, CACHE_LINE_FRAME))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+    private static final MethodHandle PERLIN_RUN_COMPLETE_DRAW =
+            findStatic(PERLIN_DRAWER, "runCompleteDraw", MethodType.methodType(void.class));
+    private static final MethodHandle PERLIN_ROW_KERNEL = findStatic(PERLIN_DRAWER, "fillRow",
+            MethodType.methodType(void.class, int[].class, int.class, int.class, int.class,
+                    double.class, double.class, double.class));
+    private static final MethodHandle JULIA_ROW_KERNEL = findStatic(JULIA, "drawJuliaRow",
+            MethodType.methodType(void.class, int[].class, int.class, int.class, int.class, int.class,
+                    double.class, double.class));
+    private static final MethodHandle JULIA_DRAW = findStatic(JULIA, "drawJulia",
+            MethodType.methodType(void.class, int[].class, double.class, double.class, int.class, int.class));
+    private static final MethodHandle JULIA_DRAW_MODEL = findStatic(JULIA, "drawJulia",
+            MethodType.methodType(void.class, RENDER_POOL, int.class, int[].class, double.class, double.class,
+                    int.class))
+            .asType(MethodType.methodType(void.class, Object.class, int.class, int[].class, double.class,
+                    double.class, int.class));
+
+    private static final MethodHandle NEW_RENDER_POOL =
+            findConstructor(RENDER_POOL, MethodType.methodType(void.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class));
+    private static final MethodHandle NEW_CACHE_LINE_FRAME =
+            findConstructor(CACHE_LINE_FRAME, MethodType.methodType(void.class, int.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class, int.class));
+    private static final MethodHandle CACHE_LINE_FRAME_TO_LINEAR =
+            findVirtual(CACHE_LINE_FRAME, "toLinear", MethodType.methodType(void.class, int[].class))
+                    .asType(MethodType.methodType(void.class, Object.class, int[].class));
+    private static final MethodHandle RENDER_POOL_SHUTDOWN =
+            findVirtual(RENDER_POOL, "shutdown", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+
+    private static final MethodHandle SET_PERLIN_SIZE = findStaticSetter(PERLIN, "SIZE", int.class);
+    private static final MethodHandle SET_PERLIN_BUFFER = findStaticSetter(PERLIN, "BUFFER", int[].class);
+    private static final MethodHandle SET_BLOCK_SIZE = findStaticSetter(SCHEDULER, "BLOCK_SIZE", int.class);
+    private static final MethodHandle SET_BLOCK_WIDTH = findStaticSetter(SCHEDULER, "BLOCK_WIDTH", int.class);
+
+    private Targets()
+    {
+    }
+
+    // Point Perlin2D's globals at a fresh image of the given size, drawn in blocks of
+    // blockSize whole rows by the block models.
+    static void perlinFrame(int size, int blockSize)
+    {
+        perlinFrame(size, 0, blockSize);
+    }
+
+    // The same, drawn in blockWidth x blockHeight tiles (whole rows for a width of 0).
+    static void perlinFrame(int size, int blockWidth, int blockHeight)
+    {
+        try
+        {
+            SET_PERLIN_SIZE.invokeExact(size);
+            SET_PERLIN_BUFFER.invokeExact(new int[size * size]);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+        blockSize(blockWidth, blockHeight);
+    }
+
+    // The number of rows in a block for the block models of every renderer.
+    static void blockSize(int blockSize)
+    {
+        blockSize(0, blockSize);
+    }
+
+    // The width (0 for whole rows) and height of a block for the block models.
+    static void blockSize(int blockWidth, int blockHeight)
+    {
+        try
+        {
+            SET_BLOCK_WIDTH.invokeExact(blockWidth);
+            SET_BLOCK_SIZE.invokeExact(blockHeight);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    // A RenderPool with the given number of threads, or null for single-threaded drawing.
+    static Object newRenderPool(int numberOfThreads)
+    {
+        if (numberOfThreads <= 1)
+        {
+            return null;
+        }
+        try
+        {
+            return (Object) NEW_RENDER_POOL.invokeExact(numberOfThreads);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void shutdownRenderPool(Object pool)
+    {
+        if (pool == null)
+        {
+            return;
+        }
+        try
+        {
+            RENDER_POOL_SHUTDOWN.invokeExact(pool);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void perlinDrawImage(Object pool, int workDistModel)
+    {
+        try
+        {
+            PERLIN_DRAW_IMAGE.invokeExact(pool, workDistModel);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    // A size x size CacheLineFrame
+    static Object newCacheLineFrame(int size)
+    {
+        try
+        {
+            return (Object) NEW_CACHE_LINE_FRAME.invokeExact(size, size);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    // Draw the image into a CacheLineFrame, tile by tile
+    static void perlinDrawImage(Object pool, int workDistModel, Object frame)
+    {
+        try
+        {
+            PERLIN_DRAW_TILED.invokeExact(pool, workDistModel, frame);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void cacheLineFrameToLinear(Object frame, int[] image)
+    {
+        try
+        {
+            CACHE_LINE_FRAME_TO_LINEAR.invokeExact(frame, image);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void perlinRunCompleteDraw()
+    {
+        try
+        {
+            PERLIN_RUN_COMPLETE_DRAW.invokeExact();
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void perlinRowKernel(int[] buffer, int offset, int colStart, int colEnd,
+                                double xScale, double xOrigin, double y)
+    {
+        try
+        {
+            PERLIN_ROW_KERNEL.invokeExact(buffer, offset, colStart, colEnd, xScale, xOrigin, y);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void perlinVectorRowKernel(int[] buffer, int offset, int colStart, int colEnd,
+                                      double xScale, double xOrigin, double y)
+    {
+        try
+        {
+            VectorKernels.PERLIN_ROW_KERNEL.invokeExact(buffer, offset, colStart, colEnd, xScale, xOrigin, y);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void juliaRowKernel(int[] buffer, int size, int row, int colStart, int colEnd, double a, double b)
+    {
+        try
+        {
+            JULIA_ROW_KERNEL.invokeExact(buffer, size, row, colStart, colEnd, a, b);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    // Switch JuliaClassic's rows to the SIMD kernel, failing if it is not available.
+    static void juliaUseVectorKernel(boolean use)
+    {
+        final boolean used;
+        try
+        {
+            used = (boolean) VectorKernels.JULIA_USE_VECTOR_KERNEL.invokeExact(use);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+        if (used != use)
+        {
+            throw new IllegalStateException("The vector kernel needs --add-modules jdk.incubator.vector");
+        }
+    }
+
+    static void juliaDraw(int[] imageData, double a, double b, int size, int numberOfThreads)
+    {
+        try
+        {
+            JULIA_DRAW.invokeExact(imageData, a, b, size, numberOfThreads);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void juliaDraw(Object pool, int workDistModel, int[] imageData, double a, double b, int size)
+    {
+        try
+        {
+            JULIA_DRAW_MODEL.invokeExact(pool, workDistModel, imageData, a, b, size);
+        } catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    // The SIMD kernels only load with --add-modules jdk.incubator.vector, so they are
+    // looked up the first time one is used rather than with everything else.
+    private static final class VectorKernels
+    {
+        static final MethodHandle PERLIN_ROW_KERNEL = findStatic(load("PerlinVectorKernel"), "fillRow",
+                MethodType.methodType(void.class, int[].class, int.class, int.class, int.class,
+                        double.class, double.class, double.class));
+        static final MethodHandle JULIA_USE_VECTOR_KERNEL = findStatic(JULIA, "useVectorKernel",
+                MethodType.methodType(boolean.class, boolean.class));
+    }
+
+    private static Class<?> load(String name)
+    {
+        try
+        {
+            return Class.forName(name);
+        } catch (ClassNotFoundException ex)
+        {
+            throw new IllegalStateException("Renderer class " + name + " is not on the class path", ex);
+        }
+    }
+
+    private static MethodHandle findStatic(Class<?> owner, String name, MethodType type)
+    {
+        try
+        {
+            return LOOKUP.findStatic(owner, name, type);
+        } catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Cannot find " + owner.getName() + "." + name, ex);
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> owner, MethodType type)
+    {
+        try
+        {
+            return LOOKUP.findConstructor(owner, type);
+        } catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Cannot find constructor of " + owner.getName(), ex);
+        }
+    }
+
+    private static MethodHandle findVirtual(Class<?> owner, String name, MethodType type)
+    {
+        try
+        {
+            return LOOKUP.findVirtual(owner, name, type);
+        } catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Cannot find " + owner.getName() + "." + name, ex);
+        }
+    }
+
+    private static MethodHandle findStaticSetter(Class<?> owner, String name, Class<?> type)
+    {
+        try
+        {
+            return LOOKUP.findStaticSetter(owner, name, type);
+        } catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Cannot find " + owner.getName() + "." + name, ex);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t)
+    {
+        if (t instanceof RuntimeException)
+        {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error)
+        {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
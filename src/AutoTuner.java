@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+// Picks the number of threads, the work distribution model and the block models' blocks
+// (WorkScheduler.BLOCK_WIDTH and BLOCK_SIZE) for a renderer on this host, for when they
+// are given as "auto". The best ones depend on the cores, the image size and the kernel,
+// so rather than guess it times a few frames of every candidate and keeps the fastest
+// (by its fastest frame, the least disturbed by anything else running). The number of
+// frames per candidate is calibrated from one single-threaded frame, so that each
+// candidate gets about TRIAL_NANOS.
+//
+// The choice is kept in a profile, a properties file keyed by a description of the render
+// from the caller (a RenderCache.key of renderer, size, kernel...) plus the host, its
+// cores and which of threads, model and blocks were fixed, so later runs with the same key
+// start with it straight away. --retune times the candidates again. Blocks given with
+// --block are the only ones timed, and kept.
+public class AutoTuner
+{
+    // In place of a number of threads or a model
+    public static final String AUTO = "auto";
+    public static final int TUNE = 0;
+
+    public static final Path DEFAULT_PROFILE = Paths.get(System.getProperty("user.home"), ".perlin-julia-tuning");
+
+    // Candidate {BLOCK_WIDTH, BLOCK_SIZE}s for the block models: bands of whole rows, and
+    // tiles
+    private static final int[][] BLOCKS = {
+            {WorkScheduler.WHOLE_ROWS, 2}, {WorkScheduler.WHOLE_ROWS, 8}, {WorkScheduler.WHOLE_ROWS, 32},
+            {64, 64}, {128, 32},
+    };
+
+    // Time per candidate, and the limits on frames timed for it
+    private static final long TRIAL_NANOS = 100_000_000L;
+    private static final int MIN_TRIAL_FRAMES = 1;
+    private static final int MAX_TRIAL_FRAMES = 20;
+
+    // Draws one complete image with the given threads and model, on the pool if it has
+    // more than one thread (pool is null otherwise).
+    @FunctionalInterface
+    public interface Renderer
+    {
+        void render(RenderPool pool, int numberOfThreads, int model);
+    }
+
+    // A configuration, and whether it was timed this run or read from the profile
+    public static final class Choice
+    {
+        public final int threads, model, blockWidth, blockSize;
+        public final boolean tuned;
+
+        Choice(int threads, int model, int blockWidth, int blockSize, boolean tuned)
+        {
+            this.threads = threads;
+            this.model = model;
+            this.blockWidth = blockWidth;
+            this.blockSize = blockSize;
+            this.tuned = tuned;
+        }
+
+        // threads,model,blockSize,blockWidth as kept in the profile
+        @Override
+        public String toString()
+        {
+            return threads + "," + model + "," + blockSize + "," + blockWidth;
+        }
+
+        // "W x H tiles" or "H rows"
+        String blocks()
+        {
+            return blockWidth == WorkScheduler.WHOLE_ROWS ? blockSize + " rows" : blockWidth + " x " + blockSize + " tiles";
+        }
+    }
+
+    private AutoTuner()
+    {
+    }
+
+    // An int argument that may be AUTO, which gives TUNE
+    public static boolean isAuto(String argument)
+    {
+        return argument.equals(AUTO);
+    }
+
+    // The configuration for the render described by key: the profile's if it has one for
+    // this host (and retune is not set), otherwise the fastest of the candidates, saved to
+    // the profile. threads and model are TUNE to be chosen or the value to use, and
+    // fixedBlocks is whether WorkScheduler.BLOCK_WIDTH and BLOCK_SIZE were given (--block)
+    // rather than to be chosen. Sets them to the choice's. Progress goes to out.
+    public static Choice choose(Path profile, boolean retune, String key, int threads, int model, boolean fixedBlocks,
+                                int maxThreads, Renderer renderer, PrintStream out)
+    {
+        final String fullKey = RenderCache.key(key, "host", host(), "cores", Runtime.getRuntime().availableProcessors(),
+                "threads", threads == TUNE ? AUTO : threads, "model", model == TUNE ? AUTO : model,
+                "blocks", fixedBlocks ? WorkScheduler.BLOCK_WIDTH + "x" + WorkScheduler.BLOCK_SIZE : AUTO);
+
+        final Properties tuned = load(profile, out);
+        Choice choice = retune ? null : parse(tuned.getProperty(fullKey), threads, model, fixedBlocks, maxThreads);
+        if (choice == null)
+        {
+            final Stopwatch watch = new Stopwatch();
+            choice = tune(threads, model, fixedBlocks, maxThreads, renderer);
+            out.printf("AUTO: tuned %s in %.1f seconds\n", fullKey, watch.elapsedTime());
+            tuned.setProperty(fullKey, choice.toString());
+            save(profile, tuned, out);
+        }
+        WorkScheduler.BLOCK_WIDTH = choice.blockWidth;
+        WorkScheduler.BLOCK_SIZE = choice.blockSize;
+        out.printf("AUTO: %d threads, model %d (%s), blocks of %s%s\n", choice.threads, choice.model,
+                WorkScheduler.modelName(choice.model), choice.blocks(),
+                choice.tuned ? "" : " from " + profile);
+        return choice;
+    }
+
+    // Time every candidate and return the fastest
+    private static Choice tune(int threads, int model, boolean fixedBlocks, int maxThreads, Renderer renderer)
+    {
+        // warms the JIT up too, so the first candidate is not the slowest for nothing
+        final int blockWidth = WorkScheduler.BLOCK_WIDTH, blockSize = WorkScheduler.BLOCK_SIZE;
+        renderer.render(null, 1, WorkScheduler.ROW_STRIDE);
+        long start = System.nanoTime();
+        renderer.render(null, 1, WorkScheduler.ROW_STRIDE);
+        final long serialNanos = Math.max(1, System.nanoTime() - start);
+        final int frames = (int) Math.max(MIN_TRIAL_FRAMES, Math.min(MAX_TRIAL_FRAMES, TRIAL_NANOS / serialNanos));
+
+        Choice best = null;
+        long bestNanos = Long.MAX_VALUE;
+        for (int t : threads == TUNE ? threadCandidates(maxThreads) : new int[] {threads})
+        {
+            final RenderPool pool = t > 1 ? new RenderPool(t) : null;
+            try
+            {
+                for (int[] modelBlock : modelCandidates(t, model, fixedBlocks))
+                {
+                    WorkScheduler.BLOCK_WIDTH = modelBlock[1];
+                    WorkScheduler.BLOCK_SIZE = modelBlock[2];
+                    // one untimed frame, for the pool's threads to get going
+                    renderer.render(pool, t, modelBlock[0]);
+                    long fastest = Long.MAX_VALUE;
+                    for (int frame = 0; frame < frames; frame++)
+                    {
+                        start = System.nanoTime();
+                        renderer.render(pool, t, modelBlock[0]);
+                        fastest = Math.min(fastest, System.nanoTime() - start);
+                    }
+                    if (fastest < bestNanos)
+                    {
+                        bestNanos = fastest;
+                        best = new Choice(t, modelBlock[0], modelBlock[1], modelBlock[2], true);
+                    }
+                }
+            } finally
+            {
+                WorkScheduler.BLOCK_WIDTH = blockWidth;
+                WorkScheduler.BLOCK_SIZE = blockSize;
+                if (pool != null)
+                {
+                    pool.shutdown();
+                }
+            }
+        }
+        return best;
+    }
+
+    // 1, 2, 4... up to twice the cores, and the number of cores itself
+    private static int[] threadCandidates(int maxThreads)
+    {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final List<Integer> candidates = new ArrayList<>();
+        for (int t = 1; t <= Math.min(maxThreads, 2 * cores); t *= 2)
+        {
+            candidates.add(t);
+        }
+        if (cores <= maxThreads && !candidates.contains(cores))
+        {
+            candidates.add(cores);
+        }
+        return candidates.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // {model, blockWidth, blockSize}: the block models with all the BLOCKS unless
+    // fixedBlocks, the others with the current blocks. With one thread there is no model,
+    // it is drawn row by row.
+    private static List<int[]> modelCandidates(int threads, int model, boolean fixedBlocks)
+    {
+        final List<int[]> candidates = new ArrayList<>();
+        if (threads == 1)
+        {
+            candidates.add(new int[] {model == TUNE ? WorkScheduler.ROW_STRIDE : model, WorkScheduler.BLOCK_WIDTH,
+                    WorkScheduler.BLOCK_SIZE});
+            return candidates;
+        }
+        for (int m = WorkScheduler.MIN_MODEL; m <= WorkScheduler.MAX_MODEL; m++)
+        {
+            if (model != TUNE && m != model)
+            {
+                continue;
+            }
+            if (!fixedBlocks && (m == WorkScheduler.BLOCK_STRIDE || m == WorkScheduler.NEXT_FREE_BLOCK))
+            {
+                for (int[] blocks : BLOCKS)
+                {
+                    candidates.add(new int[] {m, blocks[0], blocks[1]});
+                }
+            }
+            else
+            {
+                candidates.add(new int[] {m, WorkScheduler.BLOCK_WIDTH, WorkScheduler.BLOCK_SIZE});
+            }
+        }
+        return candidates;
+    }
+
+    // A profile entry, or null if there is none or it does not make sense (any more).
+    // Entries from before tiles have no block width, their blocks are whole rows.
+    private static Choice parse(String entry, int threads, int model, boolean fixedBlocks, int maxThreads)
+    {
+        if (entry == null)
+        {
+            return null;
+        }
+        final String[] values = entry.split(",");
+        try
+        {
+            final Choice choice = new Choice(Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()),
+                    values.length > 3 ? Integer.parseInt(values[3].trim()) : WorkScheduler.WHOLE_ROWS,
+                    Integer.parseInt(values[2].trim()), false);
+            if (choice.threads < 1 || choice.threads > maxThreads
+                    || choice.model < WorkScheduler.MIN_MODEL || choice.model > WorkScheduler.MAX_MODEL
+                    || choice.blockSize < 1 || choice.blockWidth < 0
+                    || (threads != TUNE && choice.threads != threads) || (model != TUNE && choice.model != model)
+                    || (fixedBlocks && (choice.blockWidth != WorkScheduler.BLOCK_WIDTH
+                            || choice.blockSize != WorkScheduler.BLOCK_SIZE)))
+            {
+                return null;
+            }
+            return choice;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex)
+        {
+            return null;
+        }
+    }
+
+    // The profile, empty if there is none yet. An unreadable one is reported and treated
+    // as empty, it is only a shortcut.
+    private static Properties load(Path profile, PrintStream out)
+    {
+        final Properties tuned = new Properties();
+        try (InputStream in = Files.newInputStream(profile))
+        {
+            tuned.load(in);
+        } catch (NoSuchFileException ex)
+        {
+            // first run
+        } catch (IOException | IllegalArgumentException ex)
+        {
+            out.println("AUTO: cannot read " + profile + ", tuning again: " + ex);
+        }
+        return tuned;
+    }
+
+    // Write the profile through a temporary file, so a run that stops halfway never
+    // leaves half of one
+    private static void save(Path profile, Properties tuned, PrintStream out)
+    {
+        final Path temporary = profile.resolveSibling(profile.getFileName() + ".tmp");
+        try
+        {
+            try (OutputStream stream = Files.newOutputStream(temporary))
+            {
+                tuned.store(stream, "threads,model,blockSize,blockWidth for each render and host, see AutoTuner");
+            }
+            Files.move(temporary, profile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex)
+        {
+            out.println("AUTO: cannot save the choice to " + profile + ": " + ex);
+        }
+    }
+
+    private static String host()
+    {
+        try
+        {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException ex)
+        {
+            return "localhost";
+        }
+    }
+
+    // The usage lines for auto and its options, indented by indent
+    public static void printOptions(PrintStream out, String indent)
+    {
+        out.println(indent + "--profile=file: where auto keeps what it chose for each host and image (default " +
+                DEFAULT_PROFILE + ")");
+        out.println(indent + "--retune: time the candidates for auto again even if the profile has a choice");
+    }
+}
@@ -0,0 +1,101 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+// An image laid out so that no two threads drawing different tiles ever write to the same
+// cache line. The image is cut into tiles of TILE_WIDTH x TILE_HEIGHT pixels, one
+// CACHE_LINE of ints each, stored one after another, row of tiles by row of tiles, each
+// tile's pixels row by row. The ints live in a direct buffer whose start is aligned to
+// CACHE_LINE, which an int[] cannot be (its elements start a header's length past an
+// address the GC only keeps 8-byte aligned), so every tile is exactly one cache line.
+// Tiles on the right and bottom edges are padded out to a whole tile.
+//
+// In a plain row-major BUFFER the pixel models (PIXEL_STRIDE, NEXT_FREE_PIXEL) have
+// neighbouring threads write neighbouring ints, and the line holding them bounces between
+// the threads' cores on every write. Drawn tile by tile into a CacheLineFrame each line is
+// only ever written by the thread that drew its tile. The image only goes back to a
+// row-major int[] (toLinear) when it is shown or written out.
+//
+// Different threads may put different tiles at the same time.
+public class CacheLineFrame
+{
+    public static final int CACHE_LINE = 64;
+    public static final int TILE_WIDTH = 4;
+    public static final int TILE_HEIGHT = 4;
+    public static final int TILE_PIXELS = TILE_WIDTH * TILE_HEIGHT;
+
+    private final int width, height;
+    private final int tilesX, tilesY;
+    // int view of the aligned buffer, only used with absolute gets and puts so it can be shared
+    private final IntBuffer tiles;
+
+    public CacheLineFrame(int width, int height)
+    {
+        if (width < 1 || height < 1)
+        {
+            throw new IllegalArgumentException(String.format("Image of %d x %d is empty", width, height));
+        }
+        this.width = width;
+        this.height = height;
+        tilesX = (width + TILE_WIDTH - 1) / TILE_WIDTH;
+        tilesY = (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+
+        long bytes = (long) tilesX * tilesY * CACHE_LINE;
+        if (bytes + CACHE_LINE > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(String.format("Image of %d x %d is too big for one buffer",
+                    width, height));
+        }
+        // a line more than needed, so there is room to move the start up to a line boundary
+        ByteBuffer aligned = ByteBuffer.allocateDirect((int) bytes + CACHE_LINE).alignedSlice(CACHE_LINE);
+        tiles = aligned.limit((int) bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    public int width()
+    {
+        return width;
+    }
+
+    public int height()
+    {
+        return height;
+    }
+
+    public int tilesX()
+    {
+        return tilesX;
+    }
+
+    public int tilesY()
+    {
+        return tilesY;
+    }
+
+    // Store tile (tileX, tileY), pixels[offset, offset + TILE_PIXELS) holds its
+    // TILE_HEIGHT rows of TILE_WIDTH pixels.
+    public void putTile(int tileX, int tileY, int[] pixels, int offset)
+    {
+        tiles.put((tileY * tilesX + tileX) * TILE_PIXELS, pixels, offset, TILE_PIXELS);
+    }
+
+    public int pixel(int x, int y)
+    {
+        int tile = (y / TILE_HEIGHT) * tilesX + x / TILE_WIDTH;
+        return tiles.get(tile * TILE_PIXELS + (y % TILE_HEIGHT) * TILE_WIDTH + x % TILE_WIDTH);
+    }
+
+    // Copy the image into image, width x height pixels row by row.
+    public void toLinear(int[] image)
+    {
+        for (int y = 0; y < height; y++)
+        {
+            int rowInTile = y % TILE_HEIGHT;
+            int start = (y / TILE_HEIGHT) * tilesX * TILE_PIXELS + rowInTile * TILE_WIDTH;
+            for (int tileX = 0; tileX < tilesX; tileX++)
+            {
+                int x = tileX * TILE_WIDTH;
+                tiles.get(start + tileX * TILE_PIXELS, image, y * width + x, Math.min(TILE_WIDTH, width - x));
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+// A number held as the unevaluated sum of two doubles, hi + lo with |lo| at most half an
+// ulp of hi, which gives about 106 bits (32 digits) of precision for roughly ten times the
+// cost of a double. Enough for the center of a deep zoom and for its reference orbit,
+// see JuliaDeepZoom. The exact sums and products come from Dekker's and Knuth's
+// error-free transformations, the product using Math.fma.
+public final class DoubleDouble
+{
+    public static final DoubleDouble ZERO = new DoubleDouble(0.0, 0.0);
+
+    private static final MathContext DIGITS = new MathContext(36);
+
+    public final double hi, lo;
+
+    private DoubleDouble(double hi, double lo)
+    {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    public static DoubleDouble valueOf(double d)
+    {
+        return new DoubleDouble(d, 0.0);
+    }
+
+    // Exactly, even past 2^53
+    public static DoubleDouble valueOf(long l)
+    {
+        double hi = l;
+        return new DoubleDouble(hi, (double) (l - (long) hi));
+    }
+
+    // s as a decimal number with all the digits double-double can hold
+    public static DoubleDouble parse(String s)
+    {
+        final BigDecimal exact;
+        try
+        {
+            exact = new BigDecimal(s.trim());
+        } catch (NumberFormatException ex)
+        {
+            throw new NumberFormatException(String.format("Value, %s, is not a number", s));
+        }
+        double hi = exact.doubleValue();
+        if (Double.isInfinite(hi))
+        {
+            throw new NumberFormatException(String.format("Value, %s, is too big", s));
+        }
+        return new DoubleDouble(hi, exact.subtract(new BigDecimal(hi)).doubleValue());
+    }
+
+    public DoubleDouble add(DoubleDouble other)
+    {
+        double s = hi + other.hi;
+        double e = twoSumError(hi, other.hi, s);
+        double t = lo + other.lo;
+        double f = twoSumError(lo, other.lo, t);
+        e += t;
+        double h = s + e;
+        e = e - (h - s);
+        e += f;
+        double hi = h + e;
+        return new DoubleDouble(hi, e - (hi - h));
+    }
+
+    public DoubleDouble add(double d)
+    {
+        double s = hi + d;
+        double e = twoSumError(hi, d, s) + lo;
+        double hi = s + e;
+        return new DoubleDouble(hi, e - (hi - s));
+    }
+
+    public DoubleDouble negate()
+    {
+        return new DoubleDouble(-hi, -lo);
+    }
+
+    public DoubleDouble subtract(DoubleDouble other)
+    {
+        return add(other.negate());
+    }
+
+    public DoubleDouble multiply(DoubleDouble other)
+    {
+        double p = hi * other.hi;
+        double e = Math.fma(hi, other.hi, -p) + (hi * other.lo + lo * other.hi);
+        double hi = p + e;
+        return new DoubleDouble(hi, e - (hi - p));
+    }
+
+    // Times a power of two, which is exact
+    public DoubleDouble scale(double powerOfTwo)
+    {
+        return new DoubleDouble(hi * powerOfTwo, lo * powerOfTwo);
+    }
+
+    public DoubleDouble square()
+    {
+        return multiply(this);
+    }
+
+    public double doubleValue()
+    {
+        return hi;
+    }
+
+    // The rounding error of s = a + b, so a + b == s + error exactly
+    private static double twoSumError(double a, double b, double s)
+    {
+        double bb = s - a;
+        return (a - (s - bb)) + (b - bb);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof DoubleDouble && ((DoubleDouble) o).hi == hi && ((DoubleDouble) o).lo == lo;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Double.hashCode(hi) * 31 + Double.hashCode(lo);
+    }
+
+    // To 36 digits, a few more than it holds
+    @Override
+    public String toString()
+    {
+        return new BigDecimal(hi).add(new BigDecimal(lo)).round(DIGITS).stripTrailingZeros().toString();
+    }
+}
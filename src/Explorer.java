@@ -0,0 +1,603 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+// An interactive viewer for Julia sets and Perlin noise: drag to pan, the mouse wheel (or
+// + and -) to zoom around the pointer, the arrow keys to pan, Home to go back to the start.
+//
+// The input handlers never wait for drawing. They only set the view wanted (target) and
+// cancel the frame being drawn, if any, through WorkScheduler.Cancel, which has its
+// workers stopRunning at their next item. Until the image catches up the panel paints the
+// image it has moved and scaled to where the target puts it, so a pan or zoom shows at
+// once. The render thread then brings the image itself to the target:
+//   a pan shifts the pixels in place, so only the newly exposed strips are drawn
+//   a zoom resamples the pixels into a preview, which the new frame draws over
+// The rectangle of pixels known to be right for the image's view (valid) is all the
+// render thread draws around. A frame that is cancelled leaves it as it was, so whatever
+// the frame did not get to is drawn by the next one.
+public class Explorer
+{
+    private static final int MIN_SIZE = 16;
+    private static final int MAX_SIZE = 4096;
+    private static final int MIN_THREADS = 1;
+    private static final int MAX_THREADS = 32;
+
+    private static final double DEFAULT_A = -0.8;
+    private static final double DEFAULT_B = 0.156;
+
+    // Zoom per notch of the mouse wheel, and per + or -
+    private static final double WHEEL_ZOOM = 1.25;
+    private static final double KEY_ZOOM = 2.0;
+    // Repaints while a frame is being drawn, to show it coming in
+    private static final int PROGRESS_MILLIS = 33;
+
+    // What is shown: where it starts, which views are allowed, and how a row of a view is
+    // drawn
+    private interface Scene
+    {
+        Viewport start();
+
+        // The nearest allowed view to view
+        Viewport limit(Viewport view, int size);
+
+        // Draws columns [colStart, colEnd) of the given row of view into pixels. Called
+        // on the render thread before every frame, so it may set up what the frame needs.
+        SpanKernel kernel(Viewport view, int[] pixels, int size);
+    }
+
+    private final Scene scene;
+    private final int size;
+    private final RenderPool pool;
+    private final int model;
+
+    // The pixels, row by row, which the image shows
+    private final int[] pixels;
+    private final BufferedImage image;
+    private final int[] scratch;
+
+    // The view wanted, only ever set on the event thread
+    private final AtomicReference<Viewport> target = new AtomicReference<>();
+
+    // The lock for the pixels and the view they show, held while they are moved about
+    // and painted but not while frames are drawn into them
+    private final Object pixelLock = new Object();
+    private Viewport shown;
+
+    // The render thread waits on this for the target to change
+    private final Object signal = new Object();
+    private volatile WorkScheduler.Cancel rendering = null;
+
+    // The pixels right for shown: columns [validX0, validX1) of rows [validY0, validY1).
+    // Only used by the render thread.
+    private int validX0, validY0, validX1, validY1;
+
+    // What the last frame took, and whether the image is still being drawn
+    private volatile double lastMillis = 0;
+    private volatile boolean drawing = false;
+
+    // Told when the pixels or the target change, or a frame starts or ends, on whichever
+    // thread changed them
+    private volatile Runnable onChange = () -> { };
+
+    private Explorer(Scene scene, int size, int numberOfThreads, int model)
+    {
+        this.scene = scene;
+        this.size = size;
+        this.model = model;
+        pool = numberOfThreads > 1 ? new RenderPool(numberOfThreads) : null;
+        image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        scratch = new int[size * size];
+        shown = scene.limit(scene.start(), size);
+        target.set(shown);
+
+        Thread renderer = new Thread(this::renderLoop, "Explorer Render");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length < 3)
+        {
+            printUsage("Must have 3 command line arguments (plus any options).");
+            System.exit(1);
+        }
+
+        final Scene scene;
+        final int size, numberOfThreads, model;
+        try
+        {
+            final String kind = args[0];
+            size = parseInt(args[1], "size", MIN_SIZE, MAX_SIZE);
+            numberOfThreads = parseInt(args[2], "threads", MIN_THREADS, MAX_THREADS);
+            Options options = new Options(args, 3, "model", "block", "kernel", "palette", "a", "b", "iterations");
+            model = options.getInt("model", WorkScheduler.NEXT_FREE_ROW, WorkScheduler.MIN_MODEL, WorkScheduler.MAX_MODEL);
+            WorkScheduler.useBlocks(options);
+            final boolean vector = options.choice("kernel", "scalar", "scalar", "vector").equals("vector");
+            if (kind.equals("julia"))
+            {
+                scene = julia(options.getDouble("a", DEFAULT_A, -1.0, 1.0), options.getDouble("b", DEFAULT_B, -1.0, 1.0));
+                JuliaClassic.useIterations(options.getInt("iterations", JuliaClassic.MAX_ITERATIONS,
+                        JuliaClassic.MIN_ITERATIONS, JuliaClassic.MAX_MAX_ITERATIONS));
+                if (options.has("palette"))
+                {
+                    JuliaClassic.palette = Palette.hues(options.get("palette", "").isEmpty() ? Palette.DEFAULT_HUE_RESOLUTION
+                            : options.getInt("palette", 0, Palette.MIN_RESOLUTION, Palette.MAX_RESOLUTION));
+                }
+                if (vector && !JuliaClassic.useVectorKernel(true))
+                {
+                    System.out.println("Using the scalar kernel, no Vector API (" + VectorSupport.HOW_TO_ENABLE + ")");
+                }
+            }
+            else if (kind.equals("perlin"))
+            {
+                scene = perlin();
+                if (options.has("palette"))
+                {
+                    PerlinDrawer.usePalette(Palette.grays(options.get("palette", "").isEmpty() ? Palette.DEFAULT_GRAY_RESOLUTION
+                            : options.getInt("palette", 0, Palette.MIN_RESOLUTION, Palette.MAX_RESOLUTION)));
+                }
+                if (vector && !PerlinDrawer.useVectorKernel(true))
+                {
+                    System.out.println("Using the scalar kernel, no Vector API (" + VectorSupport.HOW_TO_ENABLE + ")");
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException(String.format("Value, %s, given for scene must be julia or perlin", kind));
+            }
+        } catch (IllegalArgumentException ex)
+        {
+            printUsage(ex.getMessage());
+            System.exit(2);
+            return; // so java knows variables have been initialized
+        }
+
+        final Explorer explorer = new Explorer(scene, size, numberOfThreads, model);
+        SwingUtilities.invokeLater(() -> explorer.show(args[0]));
+    }
+
+    // The Julia set for a and b, deep zooms included
+    private static Scene julia(double a, double b)
+    {
+        return new Scene()
+        {
+            @Override
+            public Viewport start()
+            {
+                return Viewport.DEFAULT;
+            }
+
+            @Override
+            public Viewport limit(Viewport view, int size)
+            {
+                return view;
+            }
+
+            @Override
+            public SpanKernel kernel(Viewport view, int[] pixels, int size)
+            {
+                // the reference orbits of a deep view, here rather than on the first worker to want them
+                return JuliaClassic.juliaKernel(view, pixels, size, a, b);
+            }
+        };
+    }
+
+    // Perlin noise, starting with the square Perlin2D draws. The noise is only defined
+    // for x, y >= 0, so views are kept to the first quadrant, pans by whole pixels.
+    private static Scene perlin()
+    {
+        return new Scene()
+        {
+            @Override
+            public Viewport start()
+            {
+                return new Viewport(DoubleDouble.valueOf(Perlin2D.WIDTH / 2.0), DoubleDouble.valueOf(Perlin2D.HEIGHT / 2.0),
+                        Perlin2D.WIDTH);
+            }
+
+            @Override
+            public Viewport limit(Viewport view, int size)
+            {
+                final double pixel = view.pixelSize(size);
+                final double left = view.centerX().add(-view.width() / 2.0).doubleValue();
+                final double bottom = view.centerY().add(-view.width() / 2.0).doubleValue();
+                final double right = left < 0 ? Math.ceil(-left / pixel) : 0;
+                final double up = bottom < 0 ? Math.ceil(-bottom / pixel) : 0;
+                return right == 0 && up == 0 ? view : view.pan(right, -up, size);
+            }
+
+            @Override
+            public SpanKernel kernel(Viewport view, int[] pixels, int size)
+            {
+                final double x0 = view.centerX().add(-view.width() / 2.0).doubleValue();
+                final double y0 = view.centerY().add(view.width() / 2.0).doubleValue();
+                final double scale = view.pixelSize(size);
+                return (row, colStart, colEnd) -> PerlinDrawer.drawSquareRow(pixels, size, row, colStart, colEnd,
+                        x0, y0, scale);
+            }
+        };
+    }
+
+    // Ask for view. Never waits: the frame being drawn is cancelled and the render thread
+    // takes it from there.
+    private void request(Viewport view)
+    {
+        target.set(scene.limit(view, size));
+        final WorkScheduler.Cancel frame = rendering;
+        if (frame != null)
+        {
+            frame.cancel();
+        }
+        synchronized (signal)
+        {
+            signal.notifyAll();
+        }
+        onChange.run();
+    }
+
+    private boolean isValid()
+    {
+        return validX0 == 0 && validY0 == 0 && validX1 == size && validY1 == size;
+    }
+
+    private void renderLoop()
+    {
+        while (true)
+        {
+            final Viewport want;
+            final WorkScheduler.Cancel frame = new WorkScheduler.Cancel();
+            final int x0, y0, x1, y1;
+            try
+            {
+                synchronized (signal)
+                {
+                    while (shown.equals(target.get()) && isValid())
+                    {
+                        signal.wait();
+                    }
+                }
+            } catch (InterruptedException ex)
+            {
+                return;
+            }
+
+            synchronized (pixelLock)
+            {
+                want = target.get();
+                moveTo(want);
+                x0 = validX0;
+                y0 = validY0;
+                x1 = validX1;
+                y1 = validY1;
+                drawing = true;
+            }
+            onChange.run();
+
+            // a request from here on cancels this frame
+            rendering = frame;
+            if (!want.equals(target.get()))
+            {
+                frame.cancel();
+            }
+
+            // everything outside the valid rectangle
+            final SpanKernel kernel = scene.kernel(want, pixels, size);
+            final long start = System.nanoTime();
+            final boolean done = WorkScheduler.drawFrame(pool, (row, colStart, colEnd) ->
+            {
+                if (row < y0 || row >= y1)
+                {
+                    kernel.drawSpan(row, colStart, colEnd);
+                    return;
+                }
+                if (colStart < x0)
+                {
+                    kernel.drawSpan(row, colStart, Math.min(colEnd, x0));
+                }
+                if (colEnd > x1)
+                {
+                    kernel.drawSpan(row, Math.max(colStart, x1), colEnd);
+                }
+            }, size, size, model, frame);
+            rendering = null;
+
+            synchronized (pixelLock)
+            {
+                if (done)
+                {
+                    validX0 = validY0 = 0;
+                    validX1 = validY1 = size;
+                    lastMillis = (System.nanoTime() - start) / 1e6;
+                }
+                drawing = false;
+            }
+            onChange.run();
+        }
+    }
+
+    // Make the pixels show want, as far as the pixels there are allow, and the valid
+    // rectangle what of them is right. Holds pixelLock.
+    private void moveTo(Viewport want)
+    {
+        if (want.equals(shown))
+        {
+            return;
+        }
+        if (want.width() == shown.width())
+        {
+            // the image moves the other way from the view
+            final double pixel = shown.pixelSize(size);
+            final double dx = shown.centerX().subtract(want.centerX()).doubleValue() / pixel;
+            final double dy = want.centerY().subtract(shown.centerY()).doubleValue() / pixel;
+            final long columns = Math.round(dx), rows = Math.round(dy);
+            if (Math.abs(dx - columns) < 1e-3 && Math.abs(dy - rows) < 1e-3)
+            {
+                shift((int) Math.max(-size, Math.min(size, columns)), (int) Math.max(-size, Math.min(size, rows)));
+                shown = want;
+                return;
+            }
+        }
+        resample(want);
+        shown = want;
+    }
+
+    // Move the pixels columns right and rows down, blacking out the strips left behind
+    private void shift(int columns, int rows)
+    {
+        final int length = size - Math.abs(columns);
+        final int from = Math.max(0, -columns);
+        final int to = Math.max(0, columns);
+        if (length > 0 && Math.abs(rows) < size)
+        {
+            // rows in the order that never overwrites one before it is moved
+            if (rows >= 0)
+            {
+                for (int row = size - 1; row >= rows; row--)
+                {
+                    System.arraycopy(pixels, (row - rows) * size + from, pixels, row * size + to, length);
+                }
+            }
+            else
+            {
+                for (int row = 0; row < size + rows; row++)
+                {
+                    System.arraycopy(pixels, (row - rows) * size + from, pixels, row * size + to, length);
+                }
+            }
+        }
+
+        for (int row = 0; row < size; row++)
+        {
+            if (row < rows || row >= size + rows || length <= 0)
+            {
+                Arrays.fill(pixels, row * size, (row + 1) * size, 0);
+            }
+            else if (columns > 0)
+            {
+                Arrays.fill(pixels, row * size, row * size + columns, 0);
+            }
+            else if (columns < 0)
+            {
+                Arrays.fill(pixels, row * size + size + columns, (row + 1) * size, 0);
+            }
+        }
+
+        validX0 = Math.max(0, Math.min(size, validX0 + columns));
+        validX1 = Math.max(0, Math.min(size, validX1 + columns));
+        validY0 = Math.max(0, Math.min(size, validY0 + rows));
+        validY1 = Math.max(0, Math.min(size, validY1 + rows));
+        if (validX0 >= validX1 || validY0 >= validY1)
+        {
+            validX0 = validY0 = validX1 = validY1 = 0;
+        }
+    }
+
+    // Scale the pixels to want, nearest neighbour, as a preview for the frame to draw over
+    private void resample(Viewport want)
+    {
+        // want's pixels in shown's pixels: pixel c of want is at origin + (c + 0.5) * step
+        final double step = want.width() / shown.width();
+        final double shownPixel = shown.pixelSize(size);
+        final double originX = want.centerX().subtract(shown.centerX()).doubleValue() / shownPixel
+                + (size - size * step) / 2.0;
+        final double originY = shown.centerY().subtract(want.centerY()).doubleValue() / shownPixel
+                + (size - size * step) / 2.0;
+
+        final int[] columns = new int[size];
+        for (int c = 0; c < size; c++)
+        {
+            columns[c] = (int) Math.floor(originX + (c + 0.5) * step);
+        }
+        for (int r = 0; r < size; r++)
+        {
+            final int row = (int) Math.floor(originY + (r + 0.5) * step);
+            final int offset = r * size;
+            if (row < 0 || row >= size)
+            {
+                Arrays.fill(scratch, offset, offset + size, 0);
+                continue;
+            }
+            for (int c = 0; c < size; c++)
+            {
+                final int column = columns[c];
+                scratch[offset + c] = column < 0 || column >= size ? 0 : pixels[row * size + column];
+            }
+        }
+        System.arraycopy(scratch, 0, pixels, 0, pixels.length);
+        validX0 = validY0 = validX1 = validY1 = 0;
+    }
+
+    // The window, on the event thread
+    private void show(String title)
+    {
+        final JFrame frame = new JFrame(title);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        final ViewPanel panel = new ViewPanel();
+        panel.setPreferredSize(new Dimension(size, size));
+        frame.add(panel);
+        frame.pack();
+        frame.setResizable(false);
+
+        // shows a frame coming in, only while one is being drawn
+        final Timer progress = new Timer(PROGRESS_MILLIS, e -> panel.repaint());
+        onChange = () -> SwingUtilities.invokeLater(() ->
+        {
+            panel.repaint();
+            if (drawing)
+            {
+                progress.start();
+            }
+            else
+            {
+                progress.stop();
+            }
+            frame.setTitle(String.format("%s %s%s", title, target.get(),
+                    drawing ? " (drawing)" : String.format(" (%.0f ms)", lastMillis)));
+        });
+
+        final MouseAdapter mouse = new MouseAdapter()
+        {
+            private Point last;
+
+            @Override
+            public void mousePressed(MouseEvent e)
+            {
+                last = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e)
+            {
+                if (last != null)
+                {
+                    request(target.get().pan(last.x - e.getX(), last.y - e.getY(), size));
+                    last = e.getPoint();
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e)
+            {
+                zoom(e.getX(), e.getY(), Math.pow(WHEEL_ZOOM, -e.getPreciseWheelRotation()));
+            }
+        };
+        panel.addMouseListener(mouse);
+        panel.addMouseMotionListener(mouse);
+        panel.addMouseWheelListener(mouse);
+
+        panel.setFocusable(true);
+        panel.addKeyListener(new KeyAdapter()
+        {
+            @Override
+            public void keyPressed(KeyEvent e)
+            {
+                final int step = Math.max(1, size / 8);
+                switch (e.getKeyCode())
+                {
+                    case KeyEvent.VK_LEFT -> request(target.get().pan(-step, 0, size));
+                    case KeyEvent.VK_RIGHT -> request(target.get().pan(step, 0, size));
+                    case KeyEvent.VK_UP -> request(target.get().pan(0, -step, size));
+                    case KeyEvent.VK_DOWN -> request(target.get().pan(0, step, size));
+                    case KeyEvent.VK_PLUS, KeyEvent.VK_EQUALS, KeyEvent.VK_ADD -> zoom(size / 2, size / 2, KEY_ZOOM);
+                    case KeyEvent.VK_MINUS, KeyEvent.VK_SUBTRACT -> zoom(size / 2, size / 2, 1.0 / KEY_ZOOM);
+                    case KeyEvent.VK_HOME -> request(scene.start());
+                    default -> { }
+                }
+            }
+        });
+
+        frame.setVisible(true);
+        panel.requestFocusInWindow();
+    }
+
+    // factor times closer around pixel (x, y), unless that goes past the Viewport's limits
+    private void zoom(int x, int y, double factor)
+    {
+        try
+        {
+            request(target.get().zoomAround(x, y, size, factor));
+        } catch (IllegalArgumentException ex)
+        {
+            // as far as it goes
+        }
+    }
+
+    // Paints the pixels where the target puts them: moved and scaled by how far the target
+    // is from the view they show
+    private class ViewPanel extends JPanel
+    {
+        @Override
+        protected void paintComponent(Graphics g)
+        {
+            final Viewport view = target.get();
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, size, size);
+            synchronized (pixelLock)
+            {
+                final double pixel = view.pixelSize(size);
+                final double scale = shown.width() / view.width();
+                final double x = shown.centerX().subtract(view.centerX()).doubleValue() / pixel
+                        + (size - size * scale) / 2.0;
+                final double y = view.centerY().subtract(shown.centerY()).doubleValue() / pixel
+                        + (size - size * scale) / 2.0;
+                g.drawImage(image, (int) Math.round(x), (int) Math.round(y), (int) Math.round(size * scale),
+                        (int) Math.round(size * scale), null);
+            }
+        }
+    }
+
+    private static void printUsage(String errorMessage)
+    {
+        System.err.println(errorMessage);
+        System.err.println("The program arguments are:");
+        System.err.println("\tscene: julia or perlin");
+        System.err.printf("\tsize: the height and width of the window [%d, %d]\n", MIN_SIZE, MAX_SIZE);
+        System.err.printf("\tthreads: the number of threads to use [%d, %d]\n", MIN_THREADS, MAX_THREADS);
+        System.err.println("The options are:");
+        System.err.printf("\t--model=N: the work distribution model to use when threading (default %d)\n",
+                WorkScheduler.NEXT_FREE_ROW);
+        WorkScheduler.printModels(System.err, "\t\t");
+        WorkScheduler.printBlockOption(System.err, "\t");
+        System.err.println("\t--kernel=scalar|vector: draw one pixel or one SIMD vector at a time (default scalar)");
+        System.err.println("\t\tvector needs: " + VectorSupport.HOW_TO_ENABLE);
+        System.err.println("\t--palette[=resolution]: look colors up in a table rather than computing them");
+        System.err.printf("\t--a=A, --b=B: the Julia set's constants (default %s, %s) [-1, 1]\n", DEFAULT_A, DEFAULT_B);
+        System.err.printf("\t--iterations=N: Julia iterations before a point is in the set (default %d)\n",
+                JuliaClassic.MAX_ITERATIONS);
+        System.err.println("Drag to pan, use the mouse wheel or + and - to zoom, the arrow keys to pan, Home to start over");
+    }
+
+    private static int parseInt(String s, String name, int min, int max)
+    {
+        final int result;
+        try
+        {
+            result = Integer.parseInt(s);
+        } catch (NumberFormatException ex)
+        {
+            throw new NumberFormatException(String.format("Value, %s, given for %s is not a number", s, name));
+        }
+        if (result < min || result > max)
+        {
+            throw new NumberFormatException(String.format("Value, %d, given for %s is not in the range [%d, %d]",
+                    result, name, min, max));
+        }
+        return result;
+    }
+}
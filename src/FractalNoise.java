@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+import static java.lang.Math.*;
+
+// Fractal Brownian motion: octaves of Perlin noise, each lacunarity times the frequency
+// and gain times the amplitude of the one before, summed. Turbulence sums the absolute
+// values instead, which gives sharp creases where the noise crosses zero. The sum is
+// divided by the total amplitude so the result stays in the range plain noise has.
+//
+// fillRow is the fused kernel: every octave of a span is added into a float accumulator
+// row and only then are the sums turned into colors, once, rather than drawing each
+// octave as an image of its own and blending the colors.
+public class FractalNoise
+{
+    public static final int DEFAULT_OCTAVES = 4;
+    public static final int MIN_OCTAVES = 1;
+    public static final int MAX_OCTAVES = 16;
+    public static final double DEFAULT_LACUNARITY = 2.0;
+    public static final double DEFAULT_GAIN = 0.5;
+
+    // The finest octave's coordinates, up to its frequency times the screen's width, stay
+    // below this. perlinValue's (int) and (float) of a lattice coordinate are exact below
+    // 2^24, and the coordinates stay within reach of the gradient table.
+    public static final double MAX_COORDINATE = 1 << 24;
+    // Frequency of the finest octave over the screen, lacunarity^(octaves - 1)
+    public static final double MAX_FREQUENCY = MAX_COORDINATE / Math.max(Perlin2D.WIDTH, Perlin2D.HEIGHT);
+
+    // The accumulator row of each drawing thread, grown to the longest span it has drawn
+    private static final ThreadLocal<float[]> ACCUMULATOR = ThreadLocal.withInitial(() -> new float[0]);
+
+    private final boolean turbulence;
+    private final double[] frequency;
+    private final float[] amplitude;
+    private final float normalization;
+
+    public FractalNoise(int octaves, double lacunarity, double gain, boolean turbulence)
+    {
+        if (octaves < MIN_OCTAVES || octaves > MAX_OCTAVES)
+        {
+            throw new IllegalArgumentException(String.format("Octaves, %d, is not in the range [%d, %d]",
+                    octaves, MIN_OCTAVES, MAX_OCTAVES));
+        }
+        if (!(lacunarity >= 1.0))
+        {
+            throw new IllegalArgumentException(String.format("Lacunarity, %s, is less than 1", lacunarity));
+        }
+        if (pow(lacunarity, octaves - 1) > MAX_FREQUENCY)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Octaves, %d, at lacunarity %s reach a frequency of %.3g, more than %.3g (at most %d octaves)",
+                    octaves, lacunarity, pow(lacunarity, octaves - 1), MAX_FREQUENCY, maxOctaves(lacunarity)));
+        }
+        this.turbulence = turbulence;
+        frequency = new double[octaves];
+        amplitude = new float[octaves];
+
+        double f = 1.0, a = 1.0, total = 0.0;
+        for (int o = 0; o < octaves; o++)
+        {
+            frequency[o] = f;
+            amplitude[o] = (float) a;
+            total += a;
+            f *= lacunarity;
+            a *= gain;
+        }
+        normalization = (float) (1.0 / total);
+    }
+
+    public int octaves()
+    {
+        return frequency.length;
+    }
+
+    // The most octaves there can be with lacunarity
+    public static int maxOctaves(double lacunarity)
+    {
+        int octaves = MIN_OCTAVES;
+        while (octaves < MAX_OCTAVES && pow(lacunarity, octaves) <= MAX_FREQUENCY)
+        {
+            octaves++;
+        }
+        return octaves;
+    }
+
+    // The same contract as PerlinDrawer.fillRow: buffer[offset + col] gets the color of
+    // (xScale * col + xOrigin, y) for every col in [colStart, colEnd).
+    public void fillRow(int[] buffer, int offset, int colStart, int colEnd, double xScale, double xOrigin, double y)
+    {
+        final int length = colEnd - colStart;
+        float[] sums = ACCUMULATOR.get();
+        if (sums.length < length)
+        {
+            sums = new float[length];
+            ACCUMULATOR.set(sums);
+        }
+        Arrays.fill(sums, 0, length, 0.0f);
+
+        // octave by octave, so each pass walks one lattice from left to right
+        for (int o = 0; o < frequency.length; o++)
+        {
+            final double f = frequency[o];
+            final float a = amplitude[o];
+            final double fy = f * y;
+            final double fScale = f * xScale;
+            final double fOrigin = f * xOrigin;
+            // grow the gradient table to the octave's whole span at once, rather than
+            // towards one lattice point after another
+            final double xFirst = fScale * colStart + fOrigin, xLast = fScale * (colEnd - 1) + fOrigin;
+            GradientTable.covering((int) min(xFirst, xLast), (int) fy, (int) max(xFirst, xLast) + 1, (int) fy + 1);
+            if (turbulence)
+            {
+                for (int i = 0; i < length; i++)
+                {
+                    sums[i] += a * (float) abs(PerlinDrawer.perlinValue(fScale * (colStart + i) + fOrigin, fy));
+                }
+            }
+            else
+            {
+                for (int i = 0; i < length; i++)
+                {
+                    sums[i] += a * (float) PerlinDrawer.perlinValue(fScale * (colStart + i) + fOrigin, fy);
+                }
+            }
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            buffer[offset + colStart + i] = PerlinDrawer.grayColor(sums[i] * normalization);
+        }
+    }
+
+    // The value at (x, y) summed one pixel at a time in double, for checking fillRow.
+    public double value(double x, double y)
+    {
+        double sum = 0.0, total = 0.0;
+        for (int o = 0; o < frequency.length; o++)
+        {
+            double v = PerlinDrawer.perlinValue(frequency[o] * x, frequency[o] * y);
+            sum += amplitude[o] * (turbulence ? abs(v) : v);
+            total += amplitude[o];
+        }
+        return sum / total;
+    }
+}
@@ -0,0 +1,276 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.imageio.ImageIO;
+
+// Writes every frame a renderer draws to its own file, for running without a display.
+// Encoding happens on a thread of its own: write copies the frame into a spare buffer
+// and returns, so the caller can draw the next frame into its buffer while this one is
+// written. There are SPARE_FRAMES spare buffers, once they are all queued write waits
+// for the oldest one to be written, so a slow disk holds the renderer back rather than
+// piling up frames in memory. A caller that already has a thread for output (like
+// PerlinAnimation) uses writeNow instead, which encodes on the calling thread.
+//
+// Formats (pixels are the 0xAARRGGBB ints of the image buffers):
+//   rgba: raw R, G, B, A bytes, row by row, written through a memory-mapped file
+//   ppm:  binary PPM (P6), which most image tools read
+//   png:  through ImageIO
+public class FrameWriter implements AutoCloseable
+{
+    public static final String[] FORMATS = {"ppm", "png", "rgba"};
+    public static final String DEFAULT_FORMAT = "ppm";
+
+    private static final int SPARE_FRAMES = 2;
+
+    // queued to tell the writing thread there are no more frames
+    private static final int[] END = new int[0];
+
+    private final Path directory;
+    private final String prefix;
+    private final String format;
+    private final int width, height;
+
+    private final BlockingQueue<int[]> spare = new ArrayBlockingQueue<>(SPARE_FRAMES);
+    private final BlockingQueue<int[]> queued = new ArrayBlockingQueue<>(SPARE_FRAMES + 1);
+    private Thread thread;
+    private volatile IOException failure;
+    private int framesWritten = 0;
+    private boolean closed = false;
+
+    // Only touched by the writing thread
+    private ByteBuffer ppmBytes;
+    private BufferedImage pngImage;
+
+    // Write width x height frames to directory/prefix-00000.format, prefix-00001.format...
+    // creating directory if needed.
+    public FrameWriter(Path directory, String prefix, String format, int width, int height) throws IOException
+    {
+        boolean known = false;
+        for (String f : FORMATS)
+        {
+            known |= f.equals(format);
+        }
+        if (!known)
+        {
+            throw new IllegalArgumentException("Unknown frame format, " + format);
+        }
+
+        this.directory = Files.createDirectories(directory);
+        this.prefix = prefix;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    // Queue a copy of frame to be written as the next file. frame may be drawn over as
+    // soon as this returns.
+    public void write(int[] frame)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Frame writer has been closed");
+        }
+        checkFailure();
+        if (thread == null)
+        {
+            for (int i = 0; i < SPARE_FRAMES; i++)
+            {
+                spare.add(new int[width * height]);
+            }
+            thread = new Thread(this::writeFrames, "Frame Writer: " + prefix);
+            // close waits for the frames, this only keeps a renderer that failed from hanging
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try
+        {
+            int[] copy = spare.take();
+            System.arraycopy(frame, 0, copy, 0, width * height);
+            queued.put(copy);
+        } catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to write a frame", ex);
+        }
+    }
+
+    // Wait for every queued frame to be written.
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            checkFailure();
+            return;
+        }
+        closed = true;
+        if (thread == null)
+        {
+            return;
+        }
+        try
+        {
+            queued.put(END);
+            thread.join();
+        } catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for frames to be written", ex);
+        }
+        checkFailure();
+    }
+
+    // Write frame as the next file on the calling thread. Only for callers that do not
+    // use write.
+    public void writeNow(int[] frame) throws IOException
+    {
+        writeNow(frame, framesWritten);
+    }
+
+    // Write frame as file number frameNumber on the calling thread, for callers whose
+    // frames do not arrive in order (JuliaSweep). Not with write either.
+    public void writeNow(int[] frame, int frameNumber) throws IOException
+    {
+        writeFrame(frame, directory.resolve(String.format("%s-%05d.%s", prefix, frameNumber, format)));
+        framesWritten++;
+    }
+
+    public int framesWritten()
+    {
+        return framesWritten;
+    }
+
+    public Path directory()
+    {
+        return directory;
+    }
+
+    private void checkFailure()
+    {
+        IOException ex = failure;
+        if (ex != null)
+        {
+            throw new UncheckedIOException("Could not write a frame to " + directory, ex);
+        }
+    }
+
+    private void writeFrames()
+    {
+        while (true)
+        {
+            final int[] frame;
+            try
+            {
+                frame = queued.take();
+            } catch (InterruptedException ex)
+            {
+                return;
+            }
+            if (frame == END)
+            {
+                return;
+            }
+
+            // after a failure keep taking frames so write never blocks, but drop them
+            if (failure == null)
+            {
+                try
+                {
+                    writeNow(frame);
+                } catch (IOException ex)
+                {
+                    failure = ex;
+                }
+            }
+            spare.add(frame);
+        }
+    }
+
+    private void writeFrame(int[] frame, Path file) throws IOException
+    {
+        switch (format)
+        {
+            case "rgba":
+                writeRgba(frame, file);
+                break;
+            case "ppm":
+                writePpm(frame, file);
+                break;
+            default:
+                writePng(frame, file);
+                break;
+        }
+    }
+
+    // The file is mapped and the pixels stored straight into it, the OS writes the pages
+    // back on its own time.
+    private void writeRgba(int[] frame, Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4L * width * height);
+            // big-endian, so 0xRRGGBBAA lands as R, G, B, A
+            IntBuffer pixels = mapped.asIntBuffer();
+            for (int i = 0; i < width * height; i++)
+            {
+                int argb = frame[i];
+                pixels.put(i, (argb << 8) | (argb >>> 24));
+            }
+        }
+    }
+
+    private void writePpm(int[] frame, Path file) throws IOException
+    {
+        byte[] header = String.format("P6\n%d %d\n255\n", width, height).getBytes(StandardCharsets.US_ASCII);
+        int length = header.length + 3 * width * height;
+        if (ppmBytes == null || ppmBytes.capacity() < length)
+        {
+            ppmBytes = ByteBuffer.allocateDirect(length);
+        }
+
+        ByteBuffer bytes = ppmBytes;
+        bytes.clear();
+        bytes.put(header);
+        for (int i = 0; i < width * height; i++)
+        {
+            int rgb = frame[i];
+            bytes.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb);
+        }
+        bytes.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (bytes.hasRemaining())
+            {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    private void writePng(int[] frame, Path file) throws IOException
+    {
+        if (pngImage == null)
+        {
+            pngImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] pixels = ((DataBufferInt) pngImage.getRaster().getDataBuffer()).getData();
+        System.arraycopy(frame, 0, pixels, 0, width * height);
+        if (!ImageIO.write(pngImage, "png", file.toFile()))
+        {
+            throw new IOException("No PNG writer available");
+        }
+    }
+}
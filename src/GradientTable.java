@@ -0,0 +1,181 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Precomputed Perlin gradient vectors for a rectangle of lattice points. The gradients
+// come from PerlinDrawer.gradientAngle so a lookup gives exactly the sin/cos pair that
+// hashing the point would, without the hash, the trig or the Point2D.
+//
+// The table starts out covering the default screen and grows when a lattice point
+// outside it is asked for (say a zoomed out view). Growing takes no lock: the one thread
+// that claims growing builds the new table and publishes it through the volatile field,
+// while lookups outside the current table, that one's included, hash the point instead.
+// The last growth that fits in MAX_POINTS takes the table as far as MAX_POINTS allows,
+// and a point it could not hold even then stops it growing too. From then on the table
+// stays as it is and lookups outside it just hash.
+public class GradientTable
+{
+    // 4M points, 64MB of gradients
+    private static final int MAX_POINTS = 1 << 22;
+
+    // The current table. A grown table replaces it as a whole, so readers only ever
+    // see a complete one.
+    private static volatile GradientTable table = new GradientTable(0, 0,
+            (int) Math.ceil(Perlin2D.WIDTH) + 2, (int) Math.ceil(Perlin2D.HEIGHT) + 2, null);
+
+    // The table covers lattice points [minX, minX + width) x [minY, minY + height) and the
+    // gradient of (ix, iy) is at index (iy - minY) * width + (ix - minX).
+    final int minX, minY, width, height;
+    final double[] gx, gy;
+
+    // The table for the given lattice points, with the gradients that from already has
+    // copied across rather than computed again (from may be null)
+    private GradientTable(int minX, int minY, int width, int height, GradientTable from)
+    {
+        this.minX = minX;
+        this.minY = minY;
+        this.width = width;
+        this.height = height;
+        gx = new double[width * height];
+        gy = new double[width * height];
+
+        for (int y = 0; y < height; y++)
+        {
+            // from's part of the row, if it has one
+            int copyStart = width, copyEnd = width;
+            if (from != null && minY + y >= from.minY && minY + y < from.minY + from.height)
+            {
+                copyStart = Math.max(0, from.minX - minX);
+                copyEnd = Math.min(width, from.minX + from.width - minX);
+                if (copyStart < copyEnd)
+                {
+                    int source = (minY + y - from.minY) * from.width + minX + copyStart - from.minX;
+                    System.arraycopy(from.gx, source, gx, y * width + copyStart, copyEnd - copyStart);
+                    System.arraycopy(from.gy, source, gy, y * width + copyStart, copyEnd - copyStart);
+                }
+            }
+            for (int x = 0; x < width; x++)
+            {
+                if (x == copyStart && copyStart < copyEnd)
+                {
+                    x = copyEnd - 1;
+                    continue;
+                }
+                double angle = PerlinDrawer.gradientAngle(minX + x, minY + y);
+                gx[y * width + x] = Math.sin(angle);
+                gy[y * width + x] = Math.cos(angle);
+            }
+        }
+    }
+
+    // Dot product of the gradient at lattice point (ix, iy) and the vector (dx, dy).
+    public static double dot(int ix, int iy, double dx, double dy)
+    {
+        GradientTable t = table;
+        int x = ix - t.minX;
+        int y = iy - t.minY;
+        if (x >= 0 && y >= 0 && x < t.width && y < t.height)
+        {
+            int i = y * t.width + x;
+            return dx * t.gx[i] + dy * t.gy[i];
+        }
+        return dotOutside(ix, iy, dx, dy);
+    }
+
+    // The current table if it covers lattice points [minX, maxX] x [minY, maxY], growing it
+    // if need be, or null if that would make it too big or another thread is growing it.
+    static GradientTable covering(int minX, int minY, int maxX, int maxY)
+    {
+        GradientTable t = table;
+        if (t.covers(minX, minY) && t.covers(maxX, maxY))
+        {
+            return t;
+        }
+        t = grow(minX, minY, maxX, maxY, false);
+        return t != null && t.covers(minX, minY) && t.covers(maxX, maxY) ? t : null;
+    }
+
+    private boolean covers(int ix, int iy)
+    {
+        int x = ix - minX;
+        int y = iy - minY;
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    private static double dotOutside(int ix, int iy, double dx, double dy)
+    {
+        GradientTable t = grow(ix, iy, ix, iy, true);
+        if (t != null && t.covers(ix, iy))
+        {
+            int i = (iy - t.minY) * t.width + (ix - t.minX);
+            return dx * t.gx[i] + dy * t.gy[i];
+        }
+
+        double angle = PerlinDrawer.gradientAngle(ix, iy);
+        return dx * Math.sin(angle) + dy * Math.cos(angle);
+    }
+
+    // Set once the table is as big as it gets
+    private static volatile boolean full = false;
+    // Held by the thread building a bigger table
+    private static final AtomicBoolean growing = new AtomicBoolean();
+
+    // Grow the table to cover lattice points [minX, maxX] x [minY, maxY], and beyond them if
+    // extend, and return it, or return null straight away if it is full or another thread
+    // is already growing it.
+    private static GradientTable grow(int minX, int minY, int maxX, int maxY, boolean extend)
+    {
+        if (full || !growing.compareAndSet(false, true))
+        {
+            return null;
+        }
+        try
+        {
+            GradientTable t = table;
+            return t.covers(minX, minY) && t.covers(maxX, maxY) ? t : grow(t, minX, minY, maxX, maxY, extend);
+        } finally
+        {
+            growing.set(false);
+        }
+    }
+
+    // The table grown from t to the rectangle. If extend, for lookups of single points, it
+    // grows t's own size further in every direction it grows in, so a sweep across a bigger
+    // domain only grows it a handful of times, but if that is more than MAX_POINTS the
+    // extra is cut back to what fits and the table is full. Only called by the thread
+    // holding growing.
+    private static GradientTable grow(GradientTable t, int minX, int minY, int maxX, int maxY, boolean extend)
+    {
+        // the union of t and the rectangle, ends exclusive
+        long x0 = Math.min(t.minX, minX);
+        long y0 = Math.min(t.minY, minY);
+        long x1 = Math.max((long) t.minX + t.width, (long) maxX + 1);
+        long y1 = Math.max((long) t.minY + t.height, (long) maxY + 1);
+        if ((x1 - x0) * (y1 - y0) > MAX_POINTS)
+        {
+            full = true;
+            return null;
+        }
+
+        // the extra on each side
+        long left = extend && x0 < t.minX ? t.width : 0;
+        long right = extend && x1 > (long) t.minX + t.width ? t.width : 0;
+        long bottom = extend && y0 < t.minY ? t.height : 0;
+        long top = extend && y1 > (long) t.minY + t.height ? t.height : 0;
+        double fraction = 1.0;
+        if ((x1 - x0 + left + right) * (y1 - y0 + bottom + top) > MAX_POINTS)
+        {
+            // the biggest fraction of the extra that fits: (w + f * ew) * (h + f * eh) <= MAX_POINTS
+            double w = x1 - x0, h = y1 - y0, ew = left + right, eh = bottom + top;
+            double a = ew * eh, b = w * eh + h * ew, c = w * h - MAX_POINTS;
+            fraction = a == 0 ? -c / b : (-b + Math.sqrt(b * b - 4 * a * c)) / (2 * a);
+            full = true;
+        }
+        x0 -= (long) (left * fraction);
+        x1 += (long) (right * fraction);
+        y0 -= (long) (bottom * fraction);
+        y1 += (long) (top * fraction);
+
+        t = new GradientTable((int) x0, (int) y0, (int) (x1 - x0), (int) (y1 - y0), t);
+        table = t;
+        return t;
+    }
+}
@@ -0,0 +1,38 @@
+// Compares two images of packed RGB ints, for checking an approximate rendering mode
+// against the exact one.
+public class ImageCompare
+{
+    private ImageCompare()
+    {
+    }
+
+    // The largest difference of any red, green or blue channel between the two images.
+    public static int maxChannelDifference(int[] expected, int[] actual)
+    {
+        int max = 0;
+        for (int i = 0; i < expected.length; i++)
+        {
+            int e = expected[i];
+            int a = actual[i];
+            for (int shift = 0; shift <= 16; shift += 8)
+            {
+                max = Math.max(max, Math.abs(((e >> shift) & 0xff) - ((a >> shift) & 0xff)));
+            }
+        }
+        return max;
+    }
+
+    // How many pixels differ at all.
+    public static int differentPixels(int[] expected, int[] actual)
+    {
+        int count = 0;
+        for (int i = 0; i < expected.length; i++)
+        {
+            if (expected[i] != actual[i])
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -1,11 +1,12 @@
-import java.util.LinkedList;
-import java.util.List;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.geom.Point2D;
 import java.awt.image.MemoryImageSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
@@ -21,42 +22,128 @@ public class JuliaClassic
     private static final int MAX_SIZE = 2048;
     private static final int MIN_THREADS = 1;
     private static final int MAX_THREADS = 32;
+    private static final int DEFAULT_STEPS = 8;
+    private static final int MIN_STEPS = 1;
+    private static final int MAX_STEPS = 1000;
 
-    // Cartesian values of the screen
-    private static final double CENTER_X = 0.0;
-    private static final double CENTER_Y = 0.0;
-    private static final double WIDTH = 3.25;
-    private static final double HEIGHT = 3.25;
+    // The part of the complex plane shown, see useViewport
+    private static Viewport view = Viewport.DEFAULT;
 
-    // Maximum number of iterations before a number is declared in the Julia set
+    // Maximum number of iterations before a number is declared in the Julia set, by
+    // default. Hues are always spread over MAX_ITERATIONS, so more iterations only
+    // make more of the points near the set escape, they do not change colors.
     public static final int MAX_ITERATIONS = 100;
+    public static final int MIN_ITERATIONS = 1;
+    public static final int MAX_MAX_ITERATIONS = 100000;
+
+    // The iterations actually used, see useIterations
+    static int iterations = MAX_ITERATIONS;
 
     // Distance from beyond which a point is not in the set
     public static final double THRESHOLD = 2.0;
 
+    // Draw rows with JuliaVectorKernel. Only ever set when VectorSupport.AVAILABLE.
+    private static boolean vectorKernel = false;
+
+    // Map hues to colors through this table rather than Color.HSBtoRGB, if set.
+    static Palette palette = null;
+
     public static void main(String[] args)
     {
         // Make sure we have the right number of arguments
-        if (args.length != 4)
+        if (args.length < 4)
         {
-            printUsage("Must have 4 command line arguments.");
+            printUsage("Must have 4 command line arguments (plus any options).");
             System.exit(1);
         }
 
         // Parse and check the arguments.
         double a, b;
-        int size, numberOfThreads;
+        int size, numberOfThreads, model;
+        Options options;
+        String render, format;
+        JuliaSweep sweep = null;
+        RenderCache cache = null;
         try
         {
             a = parseDouble(args[0], "a", MIN_A, MAX_A);
             b = parseDouble(args[1], "b", MIN_B, MAX_B);
             size = parseInt(args[2], "size", MIN_SIZE, MAX_SIZE);
-            numberOfThreads = parseInt(args[3], "threads", MIN_THREADS, MAX_THREADS);
-        } catch (NumberFormatException ex)
+            numberOfThreads = AutoTuner.isAuto(args[3]) ? AutoTuner.TUNE
+                    : parseInt(args[3], "threads", MIN_THREADS, MAX_THREADS);
+            options = new Options(args, 4, "model", "render", "kernel", "palette", "verify", "output", "format",
+                    "stats", "sweep", "to", "steps", "cache", "cache-memory", "cache-disk", "center", "zoom", "iterations",
+                    "profile", "retune", "block");
+            WorkScheduler.useBlocks(options);
+            format = options.choice("format", FrameWriter.DEFAULT_FORMAT, FrameWriter.FORMATS);
+            if (options.has("output") && options.get("output", "").isEmpty())
+            {
+                throw new IllegalArgumentException("--output needs a directory");
+            }
+            model = AutoTuner.isAuto(options.get("model", "")) ? AutoTuner.TUNE
+                    : options.getInt("model", WorkScheduler.ROW_STRIDE, WorkScheduler.MIN_MODEL, WorkScheduler.MAX_MODEL);
+            useIterations(options.getInt("iterations", MAX_ITERATIONS, MIN_ITERATIONS, MAX_MAX_ITERATIONS));
+            if (options.has("center") || options.has("zoom"))
+            {
+                String[] center = options.get("center", "0,0").split(",");
+                if (center.length != 2)
+                {
+                    throw new IllegalArgumentException(String.format("Value, %s, given for --center is not x,y",
+                            options.get("center", "")));
+                }
+                useViewport(Viewport.of(center[0], center[1], options.getDouble("zoom", 1.0,
+                        Viewport.DEFAULT_WIDTH / Viewport.MAX_WIDTH, Viewport.DEFAULT_WIDTH / Viewport.MIN_WIDTH)));
+                System.out.println("Viewing " + view + (view.isDeep(size) ? " by perturbation" : ""));
+            }
+            render = options.choice("render", "standard", "standard", "symmetric", "mariani");
+            if (render.equals("symmetric") && !isCenteredOnOrigin())
+            {
+                System.out.println("The view is not centered on the origin, drawing every row");
+                render = "standard";
+            }
+            if (options.has("palette"))
+            {
+                palette = Palette.hues(options.get("palette", "").isEmpty() ? Palette.DEFAULT_HUE_RESOLUTION
+                        : options.getInt("palette", 0, Palette.MIN_RESOLUTION, Palette.MAX_RESOLUTION));
+            }
+            String kernel = options.choice("kernel", "scalar", "scalar", "vector");
+            if (kernel.equals("vector") && !useVectorKernel(true))
+            {
+                System.out.println("Using the scalar kernel, no Vector API (" + VectorSupport.HOW_TO_ENABLE + ")");
+            }
+            if (options.has("sweep"))
+            {
+                if (options.has("cache"))
+                {
+                    throw new IllegalArgumentException("--cache does not work with --sweep");
+                }
+                if (numberOfThreads == AutoTuner.TUNE || model == AutoTuner.TUNE)
+                {
+                    throw new IllegalArgumentException("auto does not work with --sweep");
+                }
+                sweep = parseSweep(options, a, b);
+            }
+            if (options.has("profile") && options.get("profile", "").isEmpty())
+            {
+                throw new IllegalArgumentException("--profile needs a file");
+            }
+            cache = RenderCache.fromOptions(options);
+        } catch (IllegalArgumentException ex)
         {
             printUsage(ex.getMessage());
             System.exit(2);
             return; // so java knows variables have been initialized
+        } catch (IOException ex)
+        {
+            System.err.println("Cannot use the cache: " + ex);
+            System.exit(3);
+            return;
+        }
+
+        if (sweep != null)
+        {
+            sweep(sweep, size, numberOfThreads, options.has("output") ? options.get("output", "") : null, format);
+            return;
         }
 
         // Make space for the image
@@ -65,33 +152,364 @@ public class JuliaClassic
         // Start clock
         final Stopwatch watch = new Stopwatch();
 
-        // Make a threads for drawing. The values are passed to the
-        // constructor but we could have made them global.
-        final List<JuliaDrawingThread> juliaDrawingThreads = new LinkedList<>();
-        for (int threadNumber = 0; threadNumber < numberOfThreads; threadNumber++)
+        final String key = cacheKey(a, b, size, render);
+        if (cache != null && cache.get(key, imageData))
         {
-            JuliaDrawingThread thread = new JuliaDrawingThread(imageData, a, b, threadNumber, numberOfThreads, size);
-            juliaDrawingThreads.add(thread);
-            thread.start();
+            System.out.println("The image came from the cache");
         }
-
-        // Wait for the threads to be done
-        for (JuliaDrawingThread t : juliaDrawingThreads)
+        else if (render.equals("mariani"))
         {
-            try
+            if (numberOfThreads == AutoTuner.TUNE)
             {
-                t.join();
-            } catch (InterruptedException ex)
+                // Mariani-Silver has no model to tune
+                numberOfThreads = tune(options, size, render, AutoTuner.TUNE, WorkScheduler.ROW_STRIDE,
+                        (pool, threads, m) -> JuliaMarianiSilver.draw(pool, imageData, a, b, size)).threads;
+            }
+            final RenderPool pool = numberOfThreads > 1 ? new RenderPool(numberOfThreads) : null;
+            long skipped = JuliaMarianiSilver.draw(pool, imageData, a, b, size);
+            if (pool != null)
             {
-                System.err.println("Execution was Interrupted!");
+                pool.shutdown();
             }
+            System.out.printf("Mariani-Silver filled %d of %d pixels (%.1f%%) without iterating them\n",
+                    skipped, (long) size * size, 100.0 * skipped / ((long) size * size));
+        }
+        else
+        {
+            if (numberOfThreads == AutoTuner.TUNE || model == AutoTuner.TUNE)
+            {
+                final boolean symmetric = render.equals("symmetric");
+                AutoTuner.Choice choice = tune(options, size, render, numberOfThreads, model, (pool, threads, m) ->
+                {
+                    if (symmetric)
+                    {
+                        drawJuliaSymmetric(pool, m, imageData, a, b, size);
+                    }
+                    else
+                    {
+                        drawJulia(pool, m, imageData, a, b, size);
+                    }
+                });
+                numberOfThreads = choice.threads;
+                model = choice.model;
+            }
+            if (options.has("stats"))
+            {
+                WorkScheduler.useStats(new RenderStats("JuliaClassic", model, numberOfThreads));
+            }
+            final RenderPool pool = numberOfThreads > 1 ? new RenderPool(numberOfThreads) : null;
+            if (render.equals("symmetric"))
+            {
+                drawJuliaSymmetric(pool, model, imageData, a, b, size);
+            }
+            else
+            {
+                drawJulia(pool, model, imageData, a, b, size);
+            }
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+        if (cache != null && cache.misses() > 0)
+        {
+            cache.put(key, imageData);
         }
 
         // Stop the clock
         System.out.printf("Drawing took %f seconds\n", watch.elapsedTime());
+        if (view.isDeep(size))
+        {
+            System.out.printf("%d of %d pixels were glitches, drawn in double-double\n", JuliaDeepZoom.glitches(),
+                    (long) size * size);
+        }
+
+        if (cache != null)
+        {
+            cache.printReport(System.out);
+        }
+
+        final RenderStats stats = WorkScheduler.stats();
+        if (stats != null)
+        {
+            WorkScheduler.useStats(null);
+            stats.report(options.get("stats", ""));
+        }
+
+        // Mariani-Silver may get a few pixels wrong, but no more than MAX_DIFFERING of them
+        boolean verifyFailed = false;
+        if (options.has("verify"))
+        {
+            final long differing = verify(imageData, a, b, size);
+            final long allowed = (long) (JuliaMarianiSilver.MAX_DIFFERING * size * size);
+            if (render.equals("mariani") && differing > allowed)
+            {
+                System.out.printf("Verify: FAILED, more than %d pixels (%s of the image) differ for mariani\n",
+                        allowed, JuliaMarianiSilver.MAX_DIFFERING);
+                verifyFailed = true;
+            }
+        }
+
+        // Show the image, or write it out if asked to
+        if (options.has("output"))
+        {
+            writeImage(imageData, size, options.get("output", ""), format);
+        }
+        else if (!verifyFailed)
+        {
+            displayImage(imageData, size);
+        }
+        if (verifyFailed)
+        {
+            System.exit(4);
+        }
+    }
+
+    // AutoTuner.choose with the profile options. The choice is kept for all a and b, as
+    // one set differs from the next far less than a deep view from a shallow one.
+    private static AutoTuner.Choice tune(Options options, int size, String render, int numberOfThreads, int model,
+                                         AutoTuner.Renderer renderer)
+    {
+        final String key = RenderCache.key("julia", "size", size, "render", render,
+                "kernel", vectorKernel ? "vector" : "scalar", "palette", palette == null ? 0 : palette.resolution(),
+                "deep", view.isDeep(size), "iterations", iterations);
+        return AutoTuner.choose(options.has("profile") ? Paths.get(options.get("profile", "")) : AutoTuner.DEFAULT_PROFILE,
+                options.has("retune"), key, numberOfThreads, model, options.has("block"), MAX_THREADS, renderer,
+                System.out);
+    }
+
+    // Draw the Julia set for the constants a and b into imageData using the given
+    // number of threads. Each thread draws every numberOfThreads-th row.
+    public static void drawJulia(int[] imageData, double a, double b, int size, int numberOfThreads)
+    {
+        final RenderPool pool = numberOfThreads > 1 ? new RenderPool(numberOfThreads) : null;
+        drawJulia(pool, WorkScheduler.ROW_STRIDE, imageData, a, b, size);
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+    }
+
+    // Draw the Julia set for the constants a and b into imageData on the given pool using
+    // the given work distribution model, or on the calling thread if pool is null.
+    public static void drawJulia(RenderPool pool, int model, int[] imageData, double a, double b, int size)
+    {
+        WorkScheduler.drawFrame(pool, juliaKernel(view, imageData, size, a, b), size, size, model);
+    }
+
+    // Everything that decides the pixels of the image. The symmetric render gives exactly
+    // the standard image, Mariani-Silver fills some pixels it never iterates.
+    private static String cacheKey(double a, double b, int size, String render)
+    {
+        return RenderCache.key("julia", "a", a, "b", b, "size", size,
+                "render", render.equals("mariani") ? "mariani" : "standard",
+                "kernel", vectorKernel ? "vector" : "scalar",
+                "palette", palette == null ? 0 : palette.resolution(),
+                "view", view, "iterations", iterations);
+    }
+
+    // --sweep=grid|path --to=... --steps=N, from (a, b).
+    private static JuliaSweep parseSweep(Options options, double a, double b)
+    {
+        if (options.has("verify") || options.has("stats"))
+        {
+            throw new IllegalArgumentException("--verify and --stats do not work with --sweep");
+        }
+        final String kind = options.choice("sweep", "grid", "grid", "path");
+        final int steps = options.getInt("steps", DEFAULT_STEPS, MIN_STEPS, MAX_STEPS);
+        if (!options.has("to") || options.get("to", "").isEmpty())
+        {
+            throw new IllegalArgumentException("--sweep needs --to");
+        }
+
+        // (a, b) and then every a,b point of --to, separated by slashes
+        final String[] points = options.get("to", "").split("/");
+        final double[] as = new double[points.length + 1];
+        final double[] bs = new double[points.length + 1];
+        as[0] = a;
+        bs[0] = b;
+        for (int p = 0; p < points.length; p++)
+        {
+            final String[] ab = points[p].split(",");
+            if (ab.length != 2)
+            {
+                throw new IllegalArgumentException(String.format("Point, %s, given for --to is not a,b", points[p]));
+            }
+            as[p + 1] = parseDouble(ab[0].trim(), "a", MIN_A, MAX_A);
+            bs[p + 1] = parseDouble(ab[1].trim(), "b", MIN_B, MAX_B);
+        }
+
+        if (kind.equals("grid"))
+        {
+            if (points.length != 1)
+            {
+                throw new IllegalArgumentException("--sweep=grid needs exactly one corner for --to");
+            }
+            return JuliaSweep.grid(as[0], bs[0], as[1], bs[1], steps);
+        }
+        return JuliaSweep.path(as, bs, steps);
+    }
+
+    // Draw every frame of the sweep, reporting (and writing, if directory is not null)
+    // each one as it is done.
+    private static void sweep(JuliaSweep sweep, int size, int numberOfThreads, String directory, String format)
+    {
+        final Stopwatch watch = new Stopwatch();
+        try (FrameWriter writer = directory == null ? null
+                : new FrameWriter(Paths.get(directory), "julia", format, size, size))
+        {
+            sweep.run(size, numberOfThreads, (index, a, b, image) ->
+            {
+                if (writer != null)
+                {
+                    writer.writeNow(image, index);
+                }
+                System.out.printf("Frame %d: a = %f, b = %f at %f seconds\n", index, a, b, watch.elapsedTime());
+            });
+        } catch (IOException | UncheckedIOException ex)
+        {
+            System.err.println("Cannot write the sweep: " + ex);
+            System.exit(3);
+        }
+
+        final double seconds = watch.elapsedTime();
+        System.out.printf("Sweep of %d frames took %f seconds, %.1f frames per second\n", sweep.frames(), seconds,
+                sweep.frames() / seconds);
+        if (directory != null)
+        {
+            System.out.printf("Wrote the frames to %s\n", Paths.get(directory));
+        }
+    }
+
+    // Draw the Julia set for the constants a and b over the given view into imageData on
+    // the calling thread, leaving the view in use alone, so different threads can draw
+    // different views at once.
+    public static void drawJulia(Viewport v, int[] imageData, double a, double b, int size)
+    {
+        final SpanKernel kernel = juliaKernel(v, imageData, size, a, b);
+        for (int row = 0; row < size; row++)
+        {
+            kernel.drawSpan(row, 0, size);
+        }
+    }
+
+    // A kernel for the Julia set for a and b over the given view, drawing into imageData.
+    // A deep view's reference orbits are worked out here, once per frame, and every row is
+    // drawn from them however many other frames are being drawn at the same time.
+    public static SpanKernel juliaKernel(Viewport v, int[] imageData, int size, double a, double b)
+    {
+        if (v.isDeep(size))
+        {
+            final JuliaDeepZoom orbit = JuliaDeepZoom.orbit(v, a, b, iterations);
+            return (row, colStart, colEnd) -> orbit.drawRow(imageData, size, row, colStart, colEnd);
+        }
+        return (row, colStart, colEnd) -> drawJuliaRow(v, imageData, size, row, colStart, colEnd, a, b);
+    }
+
+    // Julia sets are symmetric about the origin: (-z)^2 = z^2, so z and -z have the same
+    // orbit from the first step on and get the same color. When the view is centered
+    // on the origin pixel (c, r) lands on -z exactly at pixel (size - c, size - r), so
+    // only the top half of the rows has to be iterated and the bottom half is a 180
+    // degree copy of it. Row 0 and column 0 have no partner inside the image and are
+    // drawn directly.
+    public static void drawJuliaSymmetric(RenderPool pool, int model, int[] imageData, double a, double b, int size)
+    {
+        // Only the rows down to the middle one, the rest is a mirror image
+        final int rows = size / 2 + 1;
+        final SpanKernel kernel = juliaKernel(view, imageData, size, a, b);
+        WorkScheduler.drawFrame(pool, (row, colStart, colEnd) ->
+        {
+            kernel.drawSpan(row, colStart, colEnd);
+
+            final int mirrorRow = size - row;
+            if (row > 0 && mirrorRow >= rows)
+            {
+                // (c, row) -> (size - c, mirrorRow), column 0 has no partner
+                final int from = row * size;
+                final int to = mirrorRow * size;
+                for (int column = Math.max(colStart, 1); column < colEnd; column++)
+                {
+                    imageData[to + size - column] = imageData[from + column];
+                }
+                if (colStart == 0)
+                {
+                    kernel.drawSpan(mirrorRow, 0, 1);
+                }
+            }
+        }, size, rows, model);
+    }
+
+    public static void drawJuliaSymmetric(int[] imageData, double a, double b, int size, int numberOfThreads)
+    {
+        final RenderPool pool = numberOfThreads > 1 ? new RenderPool(numberOfThreads) : null;
+        drawJuliaSymmetric(pool, WorkScheduler.ROW_STRIDE, imageData, a, b, size);
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+    }
+
+    // Whether drawJuliaSymmetric will give the same image as drawJulia.
+    public static boolean isCenteredOnOrigin()
+    {
+        return view.isCenteredOnOrigin();
+    }
+
+    // Draw view from now on. Views too deep for double math are drawn by JuliaDeepZoom.
+    public static void useViewport(Viewport viewport)
+    {
+        view = viewport;
+    }
+
+    public static Viewport viewport()
+    {
+        return view;
+    }
+
+    // Iterate up to this many times before declaring a point in the set (deep zooms need
+    // more than MAX_ITERATIONS to tell the points near the set apart).
+    public static void useIterations(int maxIterations)
+    {
+        iterations = maxIterations;
+    }
 
-        // Show the image
-        displayImage(imageData, size);
+    // Ask for the SIMD row kernel. Returns whether it will actually be used, which it
+    // will not be if the Vector API module is missing.
+    public static boolean useVectorKernel(boolean use)
+    {
+        vectorKernel = use && VectorSupport.AVAILABLE;
+        return vectorKernel;
+    }
+
+    // Redraw the image with the plain single-threaded scalar kernel, without a palette,
+    // report how far the given image is from it and return the number of pixels that differ.
+    private static long verify(int[] imageData, double a, double b, int size)
+    {
+        boolean vector = vectorKernel;
+        Palette hues = palette;
+        vectorKernel = false;
+        palette = null;
+        int[] expected = new int[size * size];
+        if (view.isDeep(size))
+        {
+            // every pixel in double-double, rather than by perturbation
+            JuliaDeepZoom orbit = JuliaDeepZoom.orbit(view, a, b, iterations);
+            for (int row = 0; row < size; row++)
+            {
+                orbit.drawExactRow(expected, size, row);
+            }
+        }
+        else
+        {
+            drawJulia(expected, a, b, size, 1);
+        }
+        vectorKernel = vector;
+        palette = hues;
+
+        final long differing = ImageCompare.differentPixels(expected, imageData);
+        System.out.printf("Verify: %d pixels differ from the exact scalar kernel, max channel difference %d%n",
+                differing, ImageCompare.maxChannelDifference(expected, imageData));
+        return differing;
     }
 
     // Print a given message and some basic usage infomation
@@ -102,7 +520,48 @@ public class JuliaClassic
         System.err.printf("\ta: the Julia set's a constant [%f, %f]\n", MIN_A, MAX_A);
         System.err.printf("\tb: the Julia set's b constant [%f, %f]\n", MIN_B, MAX_B);
         System.err.printf("\tsize: the height and width for the image [%d, %d]\n", MIN_SIZE, MAX_SIZE);
-        System.err.printf("\tthreads: the number of threads to use [%d, %d]\n", MIN_THREADS, MAX_THREADS);
+        System.err.printf("\tthreads: the number of threads to use [%d, %d], or auto\n", MIN_THREADS, MAX_THREADS);
+        System.err.println("The options are:");
+        System.err.printf("\t--model=N: the work distribution model to use when threading (default %d), or auto\n",
+                WorkScheduler.ROW_STRIDE);
+        WorkScheduler.printModels(System.err, "\t\t");
+        System.err.println("\tauto for threads or model times trial images of the candidates (block sizes too) and");
+        System.err.println("\t\tuses the fastest, remembered per host and image in the profile (not with --sweep)");
+        WorkScheduler.printBlockOption(System.err, "\t");
+        AutoTuner.printOptions(System.err, "\t");
+        System.err.println("\t--render=standard|symmetric|mariani: how to split up the image (default standard)");
+        System.err.println("\t\tstandard: draw every row");
+        System.err.println("\t\tsymmetric: draw the top half of the rows and mirror them into the bottom half");
+        System.err.println("\t\tmariani: subdivide rectangles, filling those with an all-black border (ignores --model)");
+        System.err.println("\t--kernel=scalar|vector: iterate one pixel or one SIMD vector of pixels at a time (default scalar)");
+        System.err.println("\t\tvector needs: " + VectorSupport.HOW_TO_ENABLE);
+        System.err.printf("\t\tvector colors are within %d of scalar on every channel\n", JuliaVectorKernel.TOLERANCE);
+        System.err.printf("\t--palette[=resolution]: look hues up in a table of that many colors (default %d) [%d, %d]\n",
+                Palette.DEFAULT_HUE_RESOLUTION, Palette.MIN_RESOLUTION, Palette.MAX_RESOLUTION);
+        System.err.println("\t--verify: compare the image with the single-threaded, exact scalar one");
+        System.err.printf("\t\twith mariani, exit with 4 if more than %s of the pixels differ\n",
+                JuliaMarianiSilver.MAX_DIFFERING);
+        System.err.println("\t--stats[=file.json]: report what every thread did (not for mariani), see Perlin2D");
+        System.err.println("\t--output=directory: write the image to julia-00000.format instead of displaying it");
+        System.err.printf("\t--format=%s: the file format for --output (default %s)\n",
+                String.join("|", FrameWriter.FORMATS), FrameWriter.DEFAULT_FORMAT);
+        System.err.println("\t\trgba is raw 8-bit R, G, B, A per pixel, row by row, with no header");
+        System.err.println("\t--center=x,y: the point to center the view on, with as many digits as needed (default 0,0)");
+        System.err.printf("\t--zoom=F: show a square F times narrower than the default %s wide\n", Viewport.DEFAULT_WIDTH);
+        System.err.printf("\t\tpixels under %s wide are drawn by perturbation from a double-double reference orbit,\n",
+                Viewport.DEEP_PIXEL_SIZE);
+        System.err.printf("\t\tdown to a view %s wide (the vector kernel is not used for them)\n", Viewport.MIN_WIDTH);
+        System.err.printf("\t--iterations=N: iterations before a point is in the set (default %d) [%d, %d]\n",
+                MAX_ITERATIONS, MIN_ITERATIONS, MAX_MAX_ITERATIONS);
+        RenderCache.printOptions(System.err, "\t");
+        System.err.println("\t--sweep=grid|path: draw a frame for each of many (a, b), all on one pool of threads (default grid)");
+        System.err.println("\t\tgrid: steps x steps frames over the rectangle from (a, b) to the corner --to");
+        System.err.println("\t\tpath: steps frames along each line from (a, b) through the --to points, and the last point");
+        System.err.println("\t\tframes are reported (and written to julia-<index>.format) as they are done,");
+        System.err.println("\t\tnot in order, and nothing is displayed (ignores --model, --render)");
+        System.err.println("\t--to=a,b[/a,b...]: the far corner of the grid, or the points of the path");
+        System.err.printf("\t--steps=N: the frames per side of the grid or per line of the path (default %d) [%d, %d]\n",
+                DEFAULT_STEPS, MIN_STEPS, MAX_STEPS);
     }
 
     // Parse the given string s as a double and check that it is within the given range. If not
@@ -150,6 +609,20 @@ public class JuliaClassic
         return result;
     }
 
+    private static void writeImage(int[] imageData, int size, String directory, String format)
+    {
+        try (FrameWriter writer = new FrameWriter(Paths.get(directory), "julia", format, size, size))
+        {
+            // one image, so on this thread: it is written by the time this prints
+            writer.writeNow(imageData);
+            System.out.printf("Wrote the image to %s\n", writer.directory());
+        } catch (IOException | UncheckedIOException ex)
+        {
+            System.err.println("Cannot write the image: " + ex);
+            System.exit(3);
+        }
+    }
+
     private static void displayImage(int[] imageData, int size)
     {
         SwingUtilities.invokeLater(() ->
@@ -182,7 +655,7 @@ public class JuliaClassic
 
         // While we have not left the bounds and there are still iterations to go.
         // Note the test also increments i.
-        while (distance < THRESHOLD && i++ < MAX_ITERATIONS)
+        while (distance < THRESHOLD && i++ < iterations)
         {
             // Apply the Julia Map
             double nextX = x * x - y * y + a;
@@ -198,14 +671,31 @@ public class JuliaClassic
             color += Math.exp(-distance);
         }
 
+        return escapeColor(distance, color);
+    }
+
+    // The color of a point whose orbit ended distance from the origin, with the given
+    // smooth-color sum.
+    static int escapeColor(double distance, float color)
+    {
         // If we are still within the bounds the point is in the set
         if (distance < THRESHOLD)
         {
             return Color.black.getRGB();
         }
 
-        // Otherwise convert the hue into a color object
-        return Color.getHSBColor(0.5f + 10 * color / MAX_ITERATIONS, 1.0f, 1.0f).getRGB();
+        // Otherwise convert the hue into a color (without making a Color object)
+        return hueColor(0.5f + 10 * color / MAX_ITERATIONS);
+    }
+
+    static int hueColor(float hue)
+    {
+        final Palette hues = palette;
+        if (hues != null)
+        {
+            return hues.hue(hue);
+        }
+        return Color.HSBtoRGB(hue, 1.0f, 1.0f);
     }
 
     private static double distance(double x, double y)
@@ -222,57 +712,42 @@ public class JuliaClassic
     // coordinates. This is just a linear transformation.
     private static Point2D.Double convertScreenToCartesian(double x, double y, int screenWidth, int screenHeight)
     {
-        return new Point2D.Double(WIDTH / screenWidth * x + CENTER_X - WIDTH / 2.0,
-                -HEIGHT / screenHeight * y + CENTER_Y + HEIGHT / 2.0);
+        final Viewport v = view;
+        return new Point2D.Double(v.width() / screenWidth * x + v.centerX().doubleValue() - v.width() / 2.0,
+                -v.width() / screenHeight * y + v.centerY().doubleValue() + v.width() / 2.0);
     }
 
-    // A thread for drawing Julia sets, does what it says...
-    private static class JuliaDrawingThread extends Thread
+    // Draw columns [colStart, colEnd) of the given row of a size x size image into buffer.
+    // This is convertScreenToCartesian and juliaColor without any objects, so nothing is
+    // allocated per pixel.
+    public static void drawJuliaRow(int[] buffer, int size, int row, int colStart, int colEnd, double a, double b)
     {
+        drawJuliaRow(view, buffer, size, row, colStart, colEnd, a, b);
+    }
 
-        // This thread does not enter into any monitors so calling stop is safe.
-        // However, deferred cancellation is still the preferred way of stopping
-        // threads. This data member will keep track of if the thread should still
-        // be running. It has the volatile keyword to let Java know that it could
-        // be modified by another thread.
-        private volatile boolean running = true;
-
-        // Copies of the values used for drawing
-        private final double a, b;
-        private final int startingRow, numberOfThreads;
-        private final int[] buffer;
-        private final int size;
-
-        public JuliaDrawingThread(int[] buffer, double a, double b, int startingRow, int numberOfThreads, int size)
+    // drawJuliaRow of the given view rather than the one in use. Only for views double
+    // can draw, a deep one is drawn with juliaKernel, which has its reference orbits.
+    public static void drawJuliaRow(Viewport v, int[] buffer, int size, int row, int colStart, int colEnd,
+                                    double a, double b)
+    {
+        if (v.isDeep(size))
         {
-            super("Julia Drawing Thread: " + startingRow + "/" + numberOfThreads);
-            this.buffer = buffer;
-            this.a = a;
-            this.b = b;
-            this.startingRow = startingRow;
-            this.numberOfThreads = numberOfThreads;
-            this.size = size;
+            throw new IllegalArgumentException(String.format(
+                    "Viewport, %s, given for drawJuliaRow is too deep for double, use juliaKernel", v));
         }
 
-        public void stopRunning()
+        final double width = v.width();
+        final double centerX = v.centerX().doubleValue();
+        final double scaleX = width / size;
+        final double y = -width / size * row + v.centerY().doubleValue() + width / 2.0;
+        final int offset = row * size;
+        if (vectorKernel)
         {
-            running = false;
+            colStart = JuliaVectorKernel.fillRow(buffer, offset, colStart, colEnd, scaleX, centerX, width / 2.0, y, a, b);
         }
-
-        // The drawing code
-        @Override
-        public void run()
+        for (int column = colStart; column < colEnd; column++)
         {
-            // Keep drawing rows as long as we are not done and are still running
-            for (int row = startingRow; running && row < size; row += numberOfThreads)
-            {
-                for (int column = 0; column < size; column++)
-                {
-                    final Point2D.Double cartesianPoint = convertScreenToCartesian(column, row, size, size);
-
-                    buffer[row * size + column] = juliaColor(cartesianPoint.getX(), cartesianPoint.getY(), a, b);
-                }
-            }
+            buffer[offset + column] = juliaColor(scaleX * column + centerX - width / 2.0, y, a, b);
         }
     }
 
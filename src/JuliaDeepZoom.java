@@ -0,0 +1,254 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Julia images of views too deep for double math (see Viewport.DEEP_PIXEL_SIZE), drawn
+// by perturbation. One reference point's orbit Z_n is iterated in double-double, and
+// every pixel z_0 = Z_0 + d_0 only iterates its small difference from it in double:
+//     z_n+1 = z_n^2 + c   and   Z_n+1 = Z_n^2 + c   give   d_n+1 = (2 Z_n + d_n) d_n
+// so each pixel costs about what it does at the default zoom, while a double-double
+// iteration for every pixel would cost ten times that.
+//
+// The difference stops being precise when z_n = Z_n + d_n comes out much smaller than
+// Z_n (a glitch: most of d_n's bits cancel), and it cannot go on once the reference
+// orbit has escaped. Such a pixel is tried against the other references there are, and
+// if it glitches on all of them it is iterated in double-double itself, which is exact
+// but slow, and its orbit becomes another reference (up to MAX_REFERENCES). Glitches
+// come in blobs of pixels whose orbits pass close to 0 together, so the rest of its
+// blob is then drawn by perturbation from it. The first reference is the longest-lived
+// orbit of a few points spread over the view rather than always the center.
+//
+// Coloring is JuliaClassic.juliaColor's, step for step, so a deep image matches a
+// shallow one wherever double is still good enough to draw both.
+public class JuliaDeepZoom
+{
+    // z_n smaller than this times Z_n is a glitch
+    private static final double GLITCH_TOLERANCE = 1e-3;
+
+    // First reference candidates per side of the view, odd so the center is one of them
+    private static final int CANDIDATES = 3;
+
+    // References per view, the first and the ones added for glitches
+    public static int MAX_REFERENCES = 16;
+
+    // Pixels drawn in double-double, since the program started
+    private static final AtomicLong glitches = new AtomicLong();
+
+    // The orbits for the last view asked for, so the next frame of the same view starts
+    // with the references this one added
+    private static volatile JuliaDeepZoom last = null;
+
+    // Never a color, Color.black has its alpha set
+    private static final int GLITCH = 0;
+
+    // A point's orbit in double-double, rounded to double
+    private final class Reference
+    {
+        // offset from the view's center
+        final double offsetX, offsetY;
+        // the points up to and including the one that escaped (or iterations + 1 of them)
+        final double[] x, y;
+        // Z_n's x, y and GLITCH_TOLERANCE^2 |Z_n|^2 one after the other, so perturbedColor
+        // walks through one array
+        final double[] interleaved;
+
+        Reference(double offsetX, double offsetY)
+        {
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            double[] x = new double[iterations + 1];
+            double[] y = new double[iterations + 1];
+            DoubleDouble zx = view.centerX().add(offsetX);
+            DoubleDouble zy = view.centerY().add(offsetY);
+            int n = 0;
+            while (true)
+            {
+                x[n] = zx.doubleValue();
+                y[n] = zy.doubleValue();
+                if (n == iterations || Math.sqrt(x[n] * x[n] + y[n] * y[n]) >= JuliaClassic.THRESHOLD)
+                {
+                    break;
+                }
+                DoubleDouble nextX = zx.square().subtract(zy.square()).add(a);
+                zy = zx.multiply(zy).scale(2.0).add(b);
+                zx = nextX;
+                n++;
+            }
+            this.x = Arrays.copyOf(x, n + 1);
+            this.y = Arrays.copyOf(y, n + 1);
+            interleaved = new double[3 * (n + 1)];
+            for (int i = 0; i <= n; i++)
+            {
+                interleaved[3 * i] = x[i];
+                interleaved[3 * i + 1] = y[i];
+                interleaved[3 * i + 2] = GLITCH_TOLERANCE * GLITCH_TOLERANCE * (x[i] * x[i] + y[i] * y[i]);
+            }
+        }
+
+        // juliaColor of this point itself, as exact as double-double gets it
+        int color()
+        {
+            float color = 0;
+            double distance = Math.sqrt(x[0] * x[0] + y[0] * y[0]);
+            for (int n = 1; n < x.length; n++)
+            {
+                distance = Math.sqrt(x[n] * x[n] + y[n] * y[n]);
+                color += Math.exp(-distance);
+            }
+            return JuliaClassic.escapeColor(distance, color);
+        }
+
+        // juliaColor of the point at (dx, dy) from this one, or GLITCH
+        int perturbedColor(double dx, double dy)
+        {
+            final double[] orbit = interleaved;
+            // as many steps as the orbit goes, fewer than iterations if it escaped
+            final int steps = Math.min(iterations, orbit.length / 3 - 1);
+            float color = 0;
+            int i = 0;
+            double px = orbit[0] + dx;
+            double py = orbit[1] + dy;
+            double distance = Math.sqrt(px * px + py * py);
+
+            // k is 3n, Z_n's place in orbit
+            for (int k = 0; distance < JuliaClassic.THRESHOLD && i < steps; k += 3)
+            {
+                i++;
+                // d = (2 Z_n + d) d
+                final double tx = 2.0 * orbit[k] + dx, ty = 2.0 * orbit[k + 1] + dy;
+                final double nextDx = tx * dx - ty * dy;
+                dy = tx * dy + ty * dx;
+                dx = nextDx;
+
+                px = orbit[k + 3] + dx;
+                py = orbit[k + 4] + dy;
+                final double squared = px * px + py * py;
+                if (squared < orbit[k + 5])
+                {
+                    return GLITCH;
+                }
+                distance = Math.sqrt(squared);
+                color += Math.exp(-distance);
+            }
+            if (distance < JuliaClassic.THRESHOLD && i < iterations)
+            {
+                // still inside when the orbit escaped
+                return GLITCH;
+            }
+            return JuliaClassic.escapeColor(distance, color);
+        }
+    }
+
+    private final Viewport view;
+    private final double a, b;
+    private final int iterations;
+
+    // The first is tried first, the rest newest first. Replaced, never changed, when
+    // one is added.
+    private volatile Reference[] references;
+
+    private JuliaDeepZoom(Viewport view, double a, double b, int iterations)
+    {
+        this.view = view;
+        this.a = a;
+        this.b = b;
+        this.iterations = iterations;
+
+        // the candidate whose orbit lasts longest
+        Reference best = null;
+        for (int j = 0; j < CANDIDATES && (best == null || best.x.length <= iterations); j++)
+        {
+            for (int i = 0; i < CANDIDATES && (best == null || best.x.length <= iterations); i++)
+            {
+                // from the center outwards, so the center wins ties
+                Reference candidate = new Reference(view.width() / 4 * spiral(i), view.width() / 4 * spiral(j));
+                if (best == null || candidate.x.length > best.x.length)
+                {
+                    best = candidate;
+                }
+            }
+        }
+        references = new Reference[] {best};
+    }
+
+    // 0, -1, 1 for the candidate grid
+    private static int spiral(int i)
+    {
+        return i == 0 ? 0 : (i % 2 == 0 ? 1 : -1) * ((i + 1) / 2);
+    }
+
+    // The orbits for drawing the view, computed once per view, a, b and iterations. Asked
+    // for once per frame (see JuliaClassic.juliaKernel), not per row: frames of different
+    // constants drawn at once would each keep replacing the other's.
+    public static JuliaDeepZoom orbit(Viewport view, double a, double b, int iterations)
+    {
+        JuliaDeepZoom orbit = last;
+        if (orbit == null || !orbit.view.equals(view) || orbit.a != a || orbit.b != b || orbit.iterations != iterations)
+        {
+            orbit = new JuliaDeepZoom(view, a, b, iterations);
+            last = orbit;
+        }
+        return orbit;
+    }
+
+    // Pixels that have had to be drawn in double-double
+    public static long glitches()
+    {
+        return glitches.get();
+    }
+
+    // The references the view has now
+    public int references()
+    {
+        return references.length;
+    }
+
+    // Draw columns [colStart, colEnd) of the given row of a size x size image of the view
+    // into buffer.
+    public void drawRow(int[] buffer, int size, int row, int colStart, int colEnd)
+    {
+        final double scale = view.pixelSize(size);
+        final double half = view.width() / 2.0;
+        // the pixel's offset from the center
+        final double y = half - scale * row;
+        final int offset = row * size;
+        for (int column = colStart; column < colEnd; column++)
+        {
+            final double x = scale * column - half;
+            final Reference[] references = this.references;
+            int color = references[0].perturbedColor(x - references[0].offsetX, y - references[0].offsetY);
+            for (int r = references.length - 1; color == GLITCH && r > 0; r--)
+            {
+                color = references[r].perturbedColor(x - references[r].offsetX, y - references[r].offsetY);
+            }
+            if (color == GLITCH)
+            {
+                glitches.incrementAndGet();
+                Reference exact = new Reference(x, y);
+                color = exact.color();
+                addReference(exact);
+            }
+            buffer[offset + column] = color;
+        }
+    }
+
+    private synchronized void addReference(Reference reference)
+    {
+        if (references.length < MAX_REFERENCES)
+        {
+            Reference[] more = Arrays.copyOf(references, references.length + 1);
+            more[references.length] = reference;
+            references = more;
+        }
+    }
+
+    // Draw the row entirely in double-double, for checking drawRow.
+    public void drawExactRow(int[] buffer, int size, int row)
+    {
+        final double scale = view.pixelSize(size);
+        final double half = view.width() / 2.0;
+        for (int column = 0; column < size; column++)
+        {
+            buffer[row * size + column] = new Reference(scale * column - half, half - scale * row).color();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Draws a whole family of Julia sets, one frame per (a, b) point of a grid or a path, in
+// one JVM on one pool of threads, so the JIT warms up once for all of them.
+//
+// Every frame is cut into bands of rows, just one band if the frame is small, and the
+// bands of all frames go to the same ForkJoinPool. So when the frames are small many of
+// them are drawn at once, one per thread, and when they are big each is shared by all
+// the threads. A frame is handed to the Listener, on an output thread of its own, as
+// soon as its last band is done, so the frames come out in roughly (not exactly) the
+// order of the sweep while later ones are still being drawn.
+//
+// Frame buffers are reused. At most inFlight frames are being drawn or waiting for the
+// listener at a time, the next frame is only started once one of them is free.
+public class JuliaSweep
+{
+    // Frames smaller than this are drawn by one thread
+    public static int MIN_BAND_PIXELS = 128 * 128;
+
+    // The frame buffers get at most this many pixels between them (but there are always two)
+    public static int MAX_IN_FLIGHT_PIXELS = 1 << 24;
+
+    public interface Listener
+    {
+        // Frame index, for the constants a and b, is done. image may only be used until this
+        // returns.
+        void frameDone(int index, double a, double b, int[] image) throws IOException;
+    }
+
+    private static final class Frame
+    {
+        final int[] image;
+        int index;
+        double a, b;
+        // draws the frame's rows, with the reference orbits if the view is deep
+        SpanKernel kernel;
+        final AtomicInteger bandsLeft = new AtomicInteger();
+
+        Frame(int[] image)
+        {
+            this.image = image;
+        }
+    }
+
+    // Passed to the output thread after the last frame
+    private static final Frame END = new Frame(null);
+
+    private final double[] as, bs;
+    private volatile Throwable failure;
+
+    private JuliaSweep(double[] as, double[] bs)
+    {
+        this.as = as;
+        this.bs = bs;
+    }
+
+    // steps x steps points evenly spaced over the rectangle with corners (a0, b0) and
+    // (a1, b1), a row of a at a time.
+    public static JuliaSweep grid(double a0, double b0, double a1, double b1, int steps)
+    {
+        double[] as = new double[steps * steps];
+        double[] bs = new double[steps * steps];
+        for (int j = 0; j < steps; j++)
+        {
+            for (int i = 0; i < steps; i++)
+            {
+                as[j * steps + i] = lerp(a0, a1, i, steps - 1);
+                bs[j * steps + i] = lerp(b0, b1, j, steps - 1);
+            }
+        }
+        return new JuliaSweep(as, bs);
+    }
+
+    // The points along the straight lines from (a[0], b[0]) to (a[1], b[1]) and so on,
+    // steps points per line, ending on the last point.
+    public static JuliaSweep path(double[] a, double[] b, int steps)
+    {
+        int segments = a.length - 1;
+        double[] as = new double[segments * steps + 1];
+        double[] bs = new double[segments * steps + 1];
+        for (int s = 0; s < segments; s++)
+        {
+            for (int k = 0; k < steps; k++)
+            {
+                as[s * steps + k] = lerp(a[s], a[s + 1], k, steps);
+                bs[s * steps + k] = lerp(b[s], b[s + 1], k, steps);
+            }
+        }
+        as[segments * steps] = a[segments];
+        bs[segments * steps] = b[segments];
+        return new JuliaSweep(as, bs);
+    }
+
+    // from + (to - from) * i / n, exactly from and to at the ends
+    private static double lerp(double from, double to, int i, int n)
+    {
+        return n == 0 || i == 0 ? from : i == n ? to : from + (to - from) * i / n;
+    }
+
+    public int frames()
+    {
+        return as.length;
+    }
+
+    public double a(int index)
+    {
+        return as[index];
+    }
+
+    public double b(int index)
+    {
+        return bs[index];
+    }
+
+    // Draw every frame at size x size on numberOfThreads threads, handing each to
+    // listener as it is done. Returns once the listener has had every frame. A problem in
+    // drawing or in the listener stops the sweep and is rethrown here.
+    public void run(int size, int numberOfThreads, Listener listener)
+    {
+        final int pixels = size * size;
+        final int bands = Math.max(1, Math.min(2 * numberOfThreads, pixels / MIN_BAND_PIXELS));
+        final int rowsPerBand = (size + bands - 1) / bands;
+        final int inFlight = Math.max(2, Math.min(2 * numberOfThreads, MAX_IN_FLIGHT_PIXELS / pixels));
+
+        final BlockingQueue<Frame> free = new ArrayBlockingQueue<>(inFlight);
+        final BlockingQueue<Frame> done = new ArrayBlockingQueue<>(inFlight + 1);
+        for (int i = 0; i < inFlight; i++)
+        {
+            free.add(new Frame(new int[pixels]));
+        }
+
+        final Thread output = new Thread(() -> output(listener, free, done), "Julia Sweep Output");
+        output.start();
+        // FIFO, so the frames are drawn in about the order they were started in
+        final ForkJoinPool pool = new ForkJoinPool(numberOfThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true);
+
+        try
+        {
+            for (int index = 0; index < as.length && failure == null; index++)
+            {
+                final Frame frame = free.take();
+                frame.index = index;
+                frame.a = as[index];
+                frame.b = bs[index];
+                frame.kernel = JuliaClassic.juliaKernel(JuliaClassic.viewport(), frame.image, size, frame.a, frame.b);
+                frame.bandsLeft.set((size + rowsPerBand - 1) / rowsPerBand);
+
+                for (int startRow = 0; startRow < size; startRow += rowsPerBand)
+                {
+                    final int firstRow = startRow;
+                    final int endRow = Math.min(size, startRow + rowsPerBand);
+                    pool.execute(() -> drawBand(frame, size, firstRow, endRow, done));
+                }
+            }
+
+            // every frame has come back once all the buffers have
+            for (int i = 0; i < inFlight; i++)
+            {
+                free.take();
+            }
+            done.put(END);
+            output.join();
+        } catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            fail(ex);
+            output.interrupt();
+        } finally
+        {
+            pool.shutdown();
+        }
+
+        Throwable t = failure;
+        if (t instanceof IOException)
+        {
+            throw new UncheckedIOException("Could not output a frame", (IOException) t);
+        }
+        if (t != null)
+        {
+            throw new IllegalStateException("The sweep failed", t);
+        }
+    }
+
+    private void drawBand(Frame frame, int size, int startRow, int endRow, BlockingQueue<Frame> done)
+    {
+        try
+        {
+            if (failure == null)
+            {
+                for (int row = startRow; row < endRow; row++)
+                {
+                    frame.kernel.drawSpan(row, 0, size);
+                }
+            }
+        } catch (RuntimeException ex)
+        {
+            fail(ex);
+        } finally
+        {
+            if (frame.bandsLeft.decrementAndGet() == 0)
+            {
+                // there are never more frames than room in done
+                done.add(frame);
+            }
+        }
+    }
+
+    private void output(Listener listener, BlockingQueue<Frame> free, BlockingQueue<Frame> done)
+    {
+        try
+        {
+            Frame frame;
+            while ((frame = done.take()) != END)
+            {
+                if (failure == null)
+                {
+                    try
+                    {
+                        listener.frameDone(frame.index, frame.a, frame.b, frame.image);
+                    } catch (IOException | RuntimeException ex)
+                    {
+                        fail(ex);
+                    }
+                }
+                free.put(frame);
+            }
+        } catch (InterruptedException ex)
+        {
+            fail(ex);
+        }
+    }
+
+    // Remember the first problem, nothing more is drawn or output once there is one
+    private synchronized void fail(Throwable t)
+    {
+        if (failure == null)
+        {
+            failure = t;
+        }
+    }
+}
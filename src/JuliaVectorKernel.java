@@ -0,0 +1,116 @@
+import java.awt.Color;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD version of JuliaClassic's escape-time loop using the incubating Vector API. A
+// vector of adjacent pixels is iterated together. A lane that escapes is masked out of
+// further updates, and its smooth-color sum is frozen, but the other lanes keep going
+// until they escape too or JuliaClassic.iterations is reached. Only load this class when
+// VectorSupport.AVAILABLE is true.
+//
+// The orbit arithmetic is the scalar code's, in the same order, so every pixel escapes
+// on the same iteration and the black interior is identical. The hue can differ a
+// little: the smooth-color sum is kept in double (the scalar code rounds it to float
+// every step) and the vector exp may differ from Math.exp in the last bits. Any channel
+// is off by at most TOLERANCE (out of 255); JuliaClassic --verify measures this.
+public class JuliaVectorKernel
+{
+    // maximum difference of any color channel from the scalar kernel
+    public static final int TOLERANCE = 2;
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    // As many float lanes as double lanes for the hue. Has to be a constant for C2.
+    private static final VectorSpecies<Float> FLOAT_SPECIES =
+            LANES == 8 ? FloatVector.SPECIES_256 : LANES == 4 ? FloatVector.SPECIES_128 : FloatVector.SPECIES_64;
+
+    // 0, 1, 2, ... used to turn a starting column into a vector of columns
+    private static final DoubleVector IOTA;
+
+    static
+    {
+        double[] iota = new double[LANES];
+        for (int i = 0; i < LANES; i++)
+        {
+            iota[i] = i;
+        }
+        IOTA = DoubleVector.fromArray(SPECIES, iota, 0);
+    }
+
+    private static final int BLACK = Color.black.getRGB();
+
+    // per-thread space for the unpacked results of one vector
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private static class Scratch
+    {
+        final float[] hues = new float[LANES];
+        final double[] distances = new double[LANES];
+    }
+
+    private JuliaVectorKernel()
+    {
+    }
+
+    // buffer[offset + col] for col in [colStart, colEnd) gets the color of the point
+    // (xScale * col + centerX - halfWidth, y), exactly how JuliaClassic.drawJuliaRow
+    // places pixels. Columns that do not fill a vector are left to the caller.
+    // Returns the first column that was not drawn.
+    public static int fillRow(int[] buffer, int offset, int colStart, int colEnd,
+                              double xScale, double centerX, double halfWidth, double y, double a, double b)
+    {
+        final Scratch scratch = SCRATCH.get();
+        final int vectorEnd = colStart + (colEnd - colStart) / LANES * LANES;
+
+        final int iterations = JuliaClassic.iterations;
+        for (int col = colStart; col < vectorEnd; col += LANES)
+        {
+            DoubleVector zx = IOTA.add((double) col).mul(xScale).add(centerX).sub(halfWidth);
+            DoubleVector zy = DoubleVector.broadcast(SPECIES, y);
+            DoubleVector distance = zx.mul(zx).add(zy.mul(zy)).lanewise(VectorOperators.SQRT);
+            DoubleVector color = DoubleVector.zero(SPECIES);
+
+            // A lane's distance is frozen once it escapes, so the lanes still inside are
+            // just those under the threshold. Recomputing the mask rather than carrying it
+            // around the loop lets C2 keep it in a register.
+            for (int i = 0; i < iterations; i++)
+            {
+                VectorMask<Double> active = distance.lt(JuliaClassic.THRESHOLD);
+                if (!active.anyTrue())
+                {
+                    break;
+                }
+
+                // Apply the Julia Map to the lanes still inside
+                DoubleVector nextX = zx.mul(zx).sub(zy.mul(zy)).add(a);
+                DoubleVector nextY = zx.mul(2.0).mul(zy).add(b);
+                zx = zx.blend(nextX, active);
+                zy = zy.blend(nextY, active);
+
+                DoubleVector nextDistance = zx.mul(zx).add(zy.mul(zy)).lanewise(VectorOperators.SQRT);
+                distance = distance.blend(nextDistance, active);
+                color = color.blend(color.add(nextDistance.neg().lanewise(VectorOperators.EXP)), active);
+            }
+
+            // hue = 0.5f + 10 * color / MAX_ITERATIONS
+            FloatVector hue = (FloatVector) color.convertShape(VectorOperators.D2F, FLOAT_SPECIES, 0);
+            hue.mul(10.0f).div((float) JuliaClassic.MAX_ITERATIONS).add(0.5f).intoArray(scratch.hues, 0);
+            distance.intoArray(scratch.distances, 0);
+
+            for (int lane = 0; lane < LANES; lane++)
+            {
+                // If we are still within the bounds the point is in the set
+                buffer[offset + col + lane] = scratch.distances[lane] < JuliaClassic.THRESHOLD
+                        ? BLACK
+                        : JuliaClassic.hueColor(scratch.hues[lane]);
+            }
+        }
+
+        return vectorEnd;
+    }
+}
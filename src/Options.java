@@ -0,0 +1,108 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The optional "--name=value" (or bare "--name") arguments that may follow a program's
+// positional arguments. Problems are reported as IllegalArgumentExceptions with a message
+// that is fit for printUsage, like parseInt's NumberFormatExceptions.
+public class Options
+{
+    private final Map<String, String> values = new LinkedHashMap<>();
+
+    // Parse args[first..] as options, rejecting anything not named in known.
+    public Options(String[] args, int first, String... known)
+    {
+        for (int i = first; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (!arg.startsWith("--"))
+            {
+                throw new IllegalArgumentException(String.format("Unexpected argument, %s", arg));
+            }
+
+            int equals = arg.indexOf('=');
+            String name = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+            String value = equals < 0 ? "" : arg.substring(equals + 1);
+
+            boolean isKnown = false;
+            for (String k : known)
+            {
+                isKnown |= k.equals(name);
+            }
+            if (!isKnown)
+            {
+                throw new IllegalArgumentException(String.format("Unknown option, --%s", name));
+            }
+
+            values.put(name, value);
+        }
+    }
+
+    public boolean has(String name)
+    {
+        return values.containsKey(name);
+    }
+
+    public String get(String name, String defaultValue)
+    {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    // The value of the option, which must be one of choices.
+    public String choice(String name, String defaultValue, String... choices)
+    {
+        String value = get(name, defaultValue);
+        for (String c : choices)
+        {
+            if (c.equals(value))
+            {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Value, %s, given for --%s must be one of %s",
+                value, name, String.join(", ", choices)));
+    }
+
+    public int getInt(String name, int defaultValue, int min, int max)
+    {
+        if (!has(name))
+        {
+            return defaultValue;
+        }
+        final int result;
+        try
+        {
+            result = Integer.parseInt(get(name, ""));
+        } catch (NumberFormatException ex)
+        {
+            throw new NumberFormatException(String.format("Value, %s, given for --%s is not a number", get(name, ""), name));
+        }
+        if (result < min || result > max)
+        {
+            throw new NumberFormatException(String.format("Value, %d, given for --%s is not in the range [%d, %d]",
+                    result, name, min, max));
+        }
+        return result;
+    }
+
+    public double getDouble(String name, double defaultValue, double min, double max)
+    {
+        if (!has(name))
+        {
+            return defaultValue;
+        }
+        final double result;
+        try
+        {
+            result = Double.parseDouble(get(name, ""));
+        } catch (NumberFormatException ex)
+        {
+            throw new NumberFormatException(String.format("Value, %s, given for --%s is not a number", get(name, ""), name));
+        }
+        if (result < min || result > max)
+        {
+            throw new NumberFormatException(String.format("Value, %f, given for --%s is not in the range [%f, %f]",
+                    result, name, min, max));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+import java.awt.Color;
+
+// A precomputed table of colors so a renderer can turn its scalar result into an RGB int
+// with one multiply and one array read, instead of a full HSB to RGB conversion per pixel.
+// The input is quantized to the table's resolution. Higher resolutions are closer to the
+// exact conversion, ImageCompare tells how close (see --verify in the programs).
+public class Palette
+{
+    // 256 gray levels is all 8-bit channels can show anyway
+    public static final int DEFAULT_GRAY_RESOLUTION = 256;
+    // a hue step then changes a channel by at most 6 * 255 / 4096 < 0.4
+    public static final int DEFAULT_HUE_RESOLUTION = 4096;
+
+    public static final int MIN_RESOLUTION = 2;
+    public static final int MAX_RESOLUTION = 1 << 20;
+
+    private final int[] colors;
+    private final int last;
+
+    private Palette(int[] colors)
+    {
+        this.colors = colors;
+        this.last = colors.length - 1;
+    }
+
+    // Grays for brightness [0, 1], what Color.getHSBColor(0, 0, brightness) gives.
+    public static Palette grays(int resolution)
+    {
+        int[] colors = new int[resolution];
+        for (int i = 0; i < resolution; i++)
+        {
+            colors[i] = Color.HSBtoRGB(0.0f, 0.0f, (float) i / (resolution - 1));
+        }
+        return new Palette(colors);
+    }
+
+    // Fully saturated, fully bright hues for hue [0, 1), what Color.getHSBColor(hue, 1, 1)
+    // gives. Like HSBtoRGB only the fractional part of a hue matters.
+    public static Palette hues(int resolution)
+    {
+        int[] colors = new int[resolution];
+        for (int i = 0; i < resolution; i++)
+        {
+            colors[i] = Color.HSBtoRGB((float) i / resolution, 1.0f, 1.0f);
+        }
+        return new Palette(colors);
+    }
+
+    public int resolution()
+    {
+        return colors.length;
+    }
+
+    // The gray for the given brightness, which is clamped to [0, 1]. Grays palette only.
+    public int gray(float brightness)
+    {
+        int i = (int) (brightness * last + 0.5f);
+        return colors[Math.max(0, Math.min(last, i))];
+    }
+
+    // The color for the given hue, any float. Hues palette only.
+    public int hue(float hue)
+    {
+        float fraction = hue - (float) Math.floor(hue);
+        int i = (int) (fraction * colors.length + 0.5f);
+        return colors[i >= colors.length ? 0 : i];
+    }
+
+    // The table's entry i, for vectorized callers that compute their own indices.
+    public int color(int i)
+    {
+        return colors[i];
+    }
+}
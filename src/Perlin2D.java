@@ -1,9 +1,11 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.MemoryImageSource;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class Perlin2D {
 
@@ -14,129 +16,473 @@ public class Perlin2D {
     private static final int MIN_THREADS = 1;
     private static final int MAX_THREADS = 32;
 
+    // Rows checked by --verify with --store, all of them would take as long as drawing
+    private static final int VERIFY_ROWS = 64;
+
+    // Lattice units of time between animation frames
+    private static final double DEFAULT_SPEED = 0.05;
+    private static final double MIN_SPEED = 0.0;
+    private static final double MAX_SPEED = 100.0;
+
+    // Ranges for the fractal noise parameters
+    private static final double MIN_LACUNARITY = 1.0;
+    private static final double MAX_LACUNARITY = 8.0;
+    private static final double MIN_GAIN = 0.0;
+    private static final double MAX_GAIN = 1.0;
+
     // Cartesian values of the screen
     public static final double WIDTH = 15.0;
     public static final double HEIGHT = 15.0;
 
-    // parameters of our thread models
-    private static final int BLOCK_SIZE = 2;
-
     // global values
     public static int[] BUFFER;
     public static int SIZE;
 
+    // draws into BUFFER
+    private static final SpanKernel PERLIN_KERNEL = PerlinDrawer::computeSavePerlinRow;
+
     public static void main(String[] args) {
 
         System.out.println("Perlin Noise Speedup Tester");
 
         // Make sure we have the right number of arguments
-        if (args.length != 4)
+        if (args.length < 4)
         {
-            printUsage("Must have 4 command line arguments.");
+            printUsage("Must have 4 command line arguments (plus any options).");
             System.exit(1);
         }
 
         // Parse and check the arguments.
         int numberOfImages, numberOfThreads, workDistModel;
+        Options options;
+        String format;
+        boolean tiled;
+        double speed = 0;
+        int tileSize = 0;
+        String noiseKey = "plain";
+        RenderCache cache = null;
         try
         {
-            SIZE = parseInt(args[0], "size", MIN_SIZE, MAX_SIZE);
+            // bigger sizes are only allowed with --store, checked below
+            SIZE = parseInt(args[0], "size", MIN_SIZE, TiledFrameStore.MAX_SIZE);
             System.out.println("\tSIZE: " + args[0]);
             numberOfImages = parseInt(args[1], "images", MIN_I, MAX_I);
             System.out.println("\t# IMAGES: " + args[1]);
-            numberOfThreads = parseInt(args[2], "threads", MIN_THREADS, MAX_THREADS);
+            numberOfThreads = AutoTuner.isAuto(args[2]) ? AutoTuner.TUNE
+                    : parseInt(args[2], "threads", MIN_THREADS, MAX_THREADS);
             System.out.println("\t# THREADS: " + args[2]);
-            workDistModel = parseInt(args[3], "model", 1, 6);
+            workDistModel = AutoTuner.isAuto(args[3]) ? AutoTuner.TUNE
+                    : parseInt(args[3], "model", WorkScheduler.MIN_MODEL, WorkScheduler.MAX_MODEL);
             System.out.println("\tTHREADING MODEL: " + (numberOfThreads == 1 ? "N/A" : args[3]));
-        } catch (NumberFormatException ex)
+            options = new Options(args, 4, "kernel", "palette", "verify", "output", "format", "animate", "store",
+                    "tile", "noise", "octaves", "lacunarity", "gain", "stats", "cache", "cache-memory", "cache-disk",
+                    "layout", "profile", "retune", "block");
+            WorkScheduler.useBlocks(options);
+            String noise = options.choice("noise", "plain", "plain", "fbm", "turbulence");
+            if (!noise.equals("plain"))
+            {
+                if (options.has("animate"))
+                {
+                    throw new IllegalArgumentException("--animate only draws plain noise");
+                }
+                final double lacunarity = options.getDouble("lacunarity", FractalNoise.DEFAULT_LACUNARITY,
+                        MIN_LACUNARITY, MAX_LACUNARITY);
+                final double gain = options.getDouble("gain", FractalNoise.DEFAULT_GAIN, MIN_GAIN, MAX_GAIN);
+                FractalNoise octaves = new FractalNoise(
+                        options.getInt("octaves", FractalNoise.DEFAULT_OCTAVES, FractalNoise.MIN_OCTAVES, FractalNoise.MAX_OCTAVES),
+                        lacunarity, gain, noise.equals("turbulence"));
+                PerlinDrawer.useFractal(octaves);
+                noiseKey = String.format("%s,%d,%s,%s", noise, octaves.octaves(), lacunarity, gain);
+                System.out.println("\tNOISE: " + noise + ", " + octaves.octaves() + " octaves");
+            }
+            if (options.has("store"))
+            {
+                if (options.get("store", "").isEmpty())
+                {
+                    throw new IllegalArgumentException("--store needs a file");
+                }
+                if (options.has("animate"))
+                {
+                    throw new IllegalArgumentException("--store only draws still images, not --animate");
+                }
+                if (!options.get("format", "ppm").equals("ppm"))
+                {
+                    throw new IllegalArgumentException("--store can only be written out as ppm");
+                }
+                tileSize = options.getInt("tile", TiledFrameStore.DEFAULT_TILE_SIZE,
+                        TiledFrameStore.MIN_TILE_SIZE, TiledFrameStore.MAX_TILE_SIZE);
+                System.out.println("\tSTORE: " + options.get("store", "") + " in tiles of " + tileSize);
+            }
+            else if (SIZE > MAX_SIZE)
+            {
+                throw new NumberFormatException(String.format("Value, %d, given for size is not in the range [%d, %d]" +
+                        " (use --store for bigger images)", SIZE, MIN_SIZE, MAX_SIZE));
+            }
+            if (options.has("animate"))
+            {
+                speed = options.get("animate", "").isEmpty() ? DEFAULT_SPEED
+                        : options.getDouble("animate", 0, MIN_SPEED, MAX_SPEED);
+                System.out.println("\tANIMATION SPEED: " + speed);
+            }
+            format = options.choice("format", FrameWriter.DEFAULT_FORMAT, FrameWriter.FORMATS);
+            if (options.has("output") && options.get("output", "").isEmpty())
+            {
+                throw new IllegalArgumentException("--output needs a directory");
+            }
+            if (options.has("palette"))
+            {
+                PerlinDrawer.usePalette(Palette.grays(options.get("palette", "").isEmpty() ? Palette.DEFAULT_GRAY_RESOLUTION
+                        : options.getInt("palette", 0, Palette.MIN_RESOLUTION, Palette.MAX_RESOLUTION)));
+            }
+            String kernel = options.choice("kernel", "scalar", "scalar", "vector");
+            if (kernel.equals("vector") && options.has("animate"))
+            {
+                System.out.println("\tKERNEL: scalar (animations have no vector kernel)");
+            }
+            else if (kernel.equals("vector") && !noise.equals("plain"))
+            {
+                System.out.println("\tKERNEL: scalar (fractal noise has no vector kernel)");
+            }
+            else if (kernel.equals("vector") && !PerlinDrawer.useVectorKernel(true))
+            {
+                System.out.println("\tKERNEL: scalar (no Vector API, " + VectorSupport.HOW_TO_ENABLE + ")");
+            }
+            else
+            {
+                System.out.println("\tKERNEL: " + kernel);
+            }
+            if (options.has("cache") && (options.has("animate") || options.has("store")))
+            {
+                throw new IllegalArgumentException("--cache only keeps still images, not --animate or --store");
+            }
+            tiled = options.choice("layout", "linear", "linear", "tiled").equals("tiled");
+            if (tiled && (options.has("animate") || options.has("store")))
+            {
+                throw new IllegalArgumentException("--layout=tiled only draws still images, not --animate or --store");
+            }
+            if (tiled)
+            {
+                System.out.printf("\tLAYOUT: tiles of %d x %d pixels, one %d-byte cache line each\n",
+                        CacheLineFrame.TILE_WIDTH, CacheLineFrame.TILE_HEIGHT, CacheLineFrame.CACHE_LINE);
+            }
+            if ((numberOfThreads == AutoTuner.TUNE || workDistModel == AutoTuner.TUNE)
+                    && (options.has("animate") || options.has("store")))
+            {
+                throw new IllegalArgumentException("auto only tunes still images, not --animate or --store");
+            }
+            if (options.has("profile") && options.get("profile", "").isEmpty())
+            {
+                throw new IllegalArgumentException("--profile needs a file");
+            }
+            cache = RenderCache.fromOptions(options);
+        } catch (IllegalArgumentException ex)
         {
             printUsage(ex.getMessage());
             System.exit(2);
             return; // so java knows variables have been initialized
+        } catch (IOException ex)
+        {
+            System.err.println("Cannot use the cache: " + ex);
+            System.exit(3);
+            return;
         }
 
-        // Make space for the image
-        BUFFER = new int[SIZE * SIZE];
+        // Time the candidates for whatever was given as auto, or look up what was chosen before
+        if (numberOfThreads == AutoTuner.TUNE || workDistModel == AutoTuner.TUNE)
+        {
+            BUFFER = new int[SIZE * SIZE];
+            final CacheLineFrame trialFrame = tiled ? new CacheLineFrame(SIZE, SIZE) : null;
+            AutoTuner.Choice choice = AutoTuner.choose(
+                    options.has("profile") ? Paths.get(options.get("profile", "")) : AutoTuner.DEFAULT_PROFILE,
+                    options.has("retune"), RenderCache.key(cacheKey(noiseKey), "layout", tiled ? "tiled" : "linear"),
+                    numberOfThreads, workDistModel, options.has("block"), MAX_THREADS, (trialPool, threads, model) ->
+                    {
+                        if (trialFrame == null)
+                        {
+                            drawImage(trialPool, model);
+                        }
+                        else
+                        {
+                            drawImage(trialPool, model, trialFrame);
+                        }
+                    }, System.out);
+            numberOfThreads = choice.threads;
+            workDistModel = choice.model;
+        }
 
-        // Start clock
-        final Stopwatch watch = new Stopwatch();
+        // Count what every thread does, frame by frame
+        final RenderStats stats = options.has("stats") ? new RenderStats("Perlin2D", workDistModel, numberOfThreads) : null;
+        WorkScheduler.useStats(stats);
 
-        for(int imageNum = 0; imageNum < numberOfImages; imageNum++){
+        if (options.has("store"))
+        {
+            drawStore(Paths.get(options.get("store", "")), tileSize, numberOfImages, numberOfThreads, workDistModel,
+                    options.has("verify"), options.has("output") ? Paths.get(options.get("output", "")) : null);
+            if (stats != null)
+            {
+                stats.report(options.get("stats", ""));
+            }
+            return;
+        }
 
-            // use multi-threading
-            if(numberOfThreads > 1){
+        // Make space for the image
+        BUFFER = new int[SIZE * SIZE];
+        final CacheLineFrame frame = tiled ? new CacheLineFrame(SIZE, SIZE) : null;
 
-                // if needed, create lists of items (rows, blocks, pixels) and pass them
-                // to the worker threads.
-                int numItems;
-                // next free row
-                if(workDistModel == 4){
-                    numItems = SIZE;
-                }
-                // next free pixel
-                else if(workDistModel == 5){
-                    numItems = SIZE*SIZE;
-                }
-                // next free block
-                else if(workDistModel == 6){
-                    numItems = SIZE / BLOCK_SIZE;
-                }
+        // Every image is written out rather than the last one displayed, if asked to
+        FrameWriter writer = null;
+        if (options.has("output"))
+        {
+            try
+            {
+                writer = new FrameWriter(Paths.get(options.get("output", "")), "perlin", format, SIZE, SIZE);
+            } catch (IOException ex)
+            {
+                System.err.println("Cannot write frames: " + ex);
+                System.exit(3);
+            }
+        }
 
-                else numItems = 0;
+        // Start clock
+        final Stopwatch watch = new Stopwatch();
 
-                ConcurrentLinkedQueue<Integer> items = null;
-                if(numItems > 0){
-                    items = new ConcurrentLinkedQueue<>();
-                    for(int i = 0; i < numItems; i++){
-                        items.add(i);
-                    }
-                }
+        // The drawing threads are started once and reused for every image
+        final RenderPool pool = numberOfThreads > 1 ? new RenderPool(numberOfThreads) : null;
 
-                final List<Thread> perlinDrawingThreads = new LinkedList<>();
-                for (int threadNumber = 0; threadNumber < numberOfThreads; threadNumber++)
+        try
+        {
+            if(options.has("animate")){
+                // every image is a new frame, drawn while the ones before it are colored and written
+                new PerlinAnimation(SIZE, speed, writer).run(pool, workDistModel, numberOfImages, BUFFER);
+            }
+            else{
+                final String key = cacheKey(noiseKey);
+                // a tiled frame is only turned into BUFFER when BUFFER is wanted: to write,
+                // to cache, and once at the end to verify and display
+                final boolean linearEveryImage = writer != null || cache != null;
+                final int model = workDistModel;
+                final Runnable draw = frame == null ? () -> drawImage(pool, model) : () ->
                 {
-
-                    ThreadedPerlinDrawer runner;
-                    // X-STRIDE TYPE MODELS
-                    if(workDistModel == 1 || workDistModel == 2 || workDistModel == 3){
-                        runner = new PerlinStride(numberOfThreads, threadNumber, workDistModel);
+                    drawImage(pool, model, frame);
+                    if(linearEveryImage){
+                        frame.toLinear(BUFFER);
+                    }
+                };
+                for(int imageNum = 0; imageNum < numberOfImages; imageNum++){
+                    if(cache == null){
+                        draw.run();
                     }
-                    // NEXT-FREE-X TYPE MODELS
                     else{
-                        runner = new PerlinNextFree(numberOfThreads, threadNumber, workDistModel, items);
+                        // every image after the first is the same one, so it comes from memory
+                        cache.getOrRender(key, BUFFER, draw);
                     }
-
-                    Thread t = new Thread(runner);
-                    perlinDrawingThreads.add(t);
-                    t.start();
-                }
-
-                // Wait for the threads to be done
-                for (Thread t : perlinDrawingThreads)
-                {
-                    try
-                    {
-                        t.join();
-                    } catch (InterruptedException ex)
-                    {
-                        System.err.println("Execution was Interrupted!");
+                    if(writer != null){
+                        // encoded on the writer's thread while the next image is drawn
+                        writer.write(BUFFER);
                     }
                 }
+                if(frame != null && !linearEveryImage){
+                    frame.toLinear(BUFFER);
+                }
             }
-
-            // single-threaded
-            else{
-                PerlinDrawer.runCompleteDraw();
+            if(writer != null){
+                writer.close();
             }
+        } catch (UncheckedIOException ex)
+        {
+            System.err.println(ex.getMessage() + ": " + ex.getCause());
+            System.exit(3);
+        }
 
+        if(pool != null){
+            pool.shutdown();
         }
 
         // Stop the clock
         System.out.printf("Drawing took %f seconds\n", watch.elapsedTime());
 
+        if (cache != null)
+        {
+            cache.printReport(System.out);
+        }
+
+        if (stats != null)
+        {
+            WorkScheduler.useStats(null);
+            stats.report(options.get("stats", ""));
+        }
+
+        if (options.has("verify"))
+        {
+            if (options.has("animate"))
+            {
+                verifyAnimation((numberOfImages - 1) * speed);
+            }
+            else
+            {
+                verify();
+            }
+        }
+
         // Show the image
-        displayImage();
+        if (writer != null)
+        {
+            System.out.printf("Wrote %d images to %s\n", writer.framesWritten(), writer.directory());
+        }
+        else
+        {
+            displayImage();
+        }
+
+    }
+
+    // Everything that decides the pixels of the image, noise being the kind of noise and
+    // its octaves, lacunarity and gain if it is fractal.
+    private static String cacheKey(String noise)
+    {
+        return RenderCache.key("perlin", "size", SIZE, "noise", noise,
+                "kernel", PerlinDrawer.vectorKernel() ? "vector" : "scalar",
+                "palette", PerlinDrawer.palette == null ? 0 : PerlinDrawer.palette.resolution(),
+                "view", WIDTH + "," + HEIGHT);
+    }
+
+    // Draw one complete image into BUFFER on the given pool using the given work
+    // distribution model, or on the calling thread if pool is null. SIZE and BUFFER must
+    // already be set up.
+    public static void drawImage(RenderPool pool, int workDistModel)
+    {
+        WorkScheduler.drawFrame(pool, PERLIN_KERNEL, SIZE, SIZE, workDistModel);
+    }
 
+    // Draw one complete image into frame, tile by tile. The work distribution models hand
+    // out cache lines where they would hand out pixels, a "row" is a row of tiles, so the
+    // pixel models never have two threads write the same line.
+    public static void drawImage(RenderPool pool, int workDistModel, CacheLineFrame frame)
+    {
+        WorkScheduler.drawFrame(pool, (tileY, tileXStart, tileXEnd) ->
+                PerlinDrawer.computeSavePerlinTiles(frame, tileY, tileXStart, tileXEnd),
+                frame.tilesX(), frame.tilesY(), workDistModel);
+    }
+
+    // Draw one complete image into store, tile by tile. The work distribution models hand
+    // out whole tiles where they would hand out pixels, a "row" is a row of tiles.
+    public static void drawImage(RenderPool pool, int workDistModel, TiledFrameStore store)
+    {
+        WorkScheduler.drawFrame(pool, (tileY, tileXStart, tileXEnd) ->
+        {
+            for (int tileX = tileXStart; tileX < tileXEnd; tileX++)
+            {
+                PerlinDrawer.computeSavePerlinTile(store, tileX, tileY);
+            }
+        }, store.tilesX(), store.tilesY(), workDistModel);
+    }
+
+    // main for --store: draw the images into a TiledFrameStore in file rather than BUFFER,
+    // so the size is not limited by the heap. Such an image is far too big to show, so it
+    // is left in the file, and written out as a PPM too if there is an output directory.
+    private static void drawStore(Path file, int tileSize, int numberOfImages, int numberOfThreads,
+                                  int workDistModel, boolean verify, Path output)
+    {
+        try (TiledFrameStore store = new TiledFrameStore(file, SIZE, SIZE, tileSize))
+        {
+            final Stopwatch watch = new Stopwatch();
+            final RenderPool pool = numberOfThreads > 1 ? new RenderPool(numberOfThreads) : null;
+            for (int imageNum = 0; imageNum < numberOfImages; imageNum++)
+            {
+                drawImage(pool, workDistModel, store);
+            }
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+            System.out.printf("Drawing took %f seconds\n", watch.elapsedTime());
+
+            if (verify)
+            {
+                verify(store);
+            }
+            if (output != null)
+            {
+                Path ppm = Files.createDirectories(output).resolve("perlin-00000.ppm");
+                store.writePpm(ppm);
+                System.out.println("Wrote the image to " + ppm);
+            }
+            System.out.printf("The image is in %s as %d x %d tiles of %d x %d pixels\n", file,
+                    store.tilesX(), store.tilesY(), tileSize, tileSize);
+        } catch (IOException ex)
+        {
+            System.err.println("Cannot use the frame store: " + ex);
+            System.exit(3);
+        }
+    }
+
+    // Like verify, for VERIFY_ROWS rows spread over an image in a store
+    private static void verify(TiledFrameStore store)
+    {
+        final Palette grays = PerlinDrawer.palette;
+        final boolean vector = PerlinDrawer.useVectorKernel(false);
+        PerlinDrawer.usePalette(null);
+
+        final int rows = Math.min(VERIFY_ROWS, SIZE);
+        final int[] expected = new int[SIZE];
+        final int[] actual = new int[SIZE];
+        long different = 0;
+        int maxDifference = 0;
+        for (int i = 0; i < rows; i++)
+        {
+            int row = (int) ((long) i * (SIZE - 1) / Math.max(1, rows - 1));
+            PerlinDrawer.fillExactRow(expected, 0, 0, SIZE, WIDTH / SIZE, HEIGHT - (HEIGHT / SIZE * row));
+            store.readRow(row, actual);
+            different += ImageCompare.differentPixels(expected, actual);
+            maxDifference = Math.max(maxDifference, ImageCompare.maxChannelDifference(expected, actual));
+        }
+        PerlinDrawer.usePalette(grays);
+        PerlinDrawer.useVectorKernel(vector);
+
+        System.out.printf("Verify: %d pixels of %d rows differ from the exact scalar kernel, max channel difference %d\n",
+                different, rows, maxDifference);
+    }
+
+    // Redraw the image single-threaded with the exact scalar kernel (no SIMD, no palette,
+    // octaves summed in double) and report how far BUFFER is from it.
+    private static void verify()
+    {
+        final int[] image = BUFFER;
+        final Palette grays = PerlinDrawer.palette;
+        final boolean vector = PerlinDrawer.useVectorKernel(false);
+        PerlinDrawer.usePalette(null);
+        final int[] expected = new int[SIZE * SIZE];
+        for (int row = 0; row < SIZE; row++)
+        {
+            PerlinDrawer.fillExactRow(expected, row * SIZE, 0, SIZE, WIDTH / SIZE, HEIGHT - (HEIGHT / SIZE * row));
+        }
+        PerlinDrawer.usePalette(grays);
+        PerlinDrawer.useVectorKernel(vector);
+
+        System.out.printf("Verify: %d pixels differ from the exact scalar kernel, max channel difference %d\n",
+                ImageCompare.differentPixels(expected, image), ImageCompare.maxChannelDifference(expected, image));
+    }
+
+    // Redraw the last frame of an animation, at time z, from the eight lattice points around
+    // every pixel rather than a Perlin3D.Slice, without a palette, and report how far
+    // BUFFER is from it.
+    private static void verifyAnimation(double z)
+    {
+        final Palette grays = PerlinDrawer.palette;
+        PerlinDrawer.usePalette(null);
+        final int[] expected = new int[SIZE * SIZE];
+        for (int row = 0; row < SIZE; row++)
+        {
+            final double y = HEIGHT - (HEIGHT / SIZE * row);
+            for (int col = 0; col < SIZE; col++)
+            {
+                expected[row * SIZE + col] = PerlinDrawer.grayColor((float) Perlin3D.noise(WIDTH / SIZE * col, y, z));
+            }
+        }
+        PerlinDrawer.usePalette(grays);
+
+        System.out.printf("Verify: %d pixels differ from the exact 3D noise, max channel difference %d\n",
+                ImageCompare.differentPixels(expected, BUFFER), ImageCompare.maxChannelDifference(expected, BUFFER));
     }
 
     // Print usage of the program and argument ranges/choices.
@@ -145,16 +491,49 @@ public class Perlin2D {
         System.err.println(errorMessage);
         System.err.println("The program arguments are:");
 
-        System.err.printf("\tsize: the height and width for the image [%d, %d]\n", MIN_SIZE, MAX_SIZE);
+        System.err.printf("\tsize: the height and width for the image [%d, %d] (%d with --store)\n", MIN_SIZE, MAX_SIZE,
+                TiledFrameStore.MAX_SIZE);
         System.err.printf("\timages: the number of images to generate (only the last is displayed) [%d, %d]\n", MIN_I, MAX_I);
-        System.err.printf("\tthreads: the number of threads to use [%d, %d]\n", MIN_THREADS, MAX_THREADS);
-        System.err.println("\tmodel: the work distribution model to use when threading [1,6]");
-        System.err.println("\t\t1: Row Stride");
-        System.err.println("\t\t2: Block Stride");
-        System.err.println("\t\t3: Pixel Stride");
-        System.err.println("\t\t4: Next Free Row");
-        System.err.println("\t\t5: Next Free Pixel");
-        System.err.println("\t\t6: Next Free Block");
+        System.err.printf("\tthreads: the number of threads to use [%d, %d], or auto\n", MIN_THREADS, MAX_THREADS);
+        System.err.printf("\tmodel: the work distribution model to use when threading [%d,%d], or auto\n",
+                WorkScheduler.MIN_MODEL, WorkScheduler.MAX_MODEL);
+        WorkScheduler.printModels(System.err, "\t\t");
+        System.err.println("\tauto for threads or model times trial images of the candidates (block sizes too) and");
+        System.err.println("\t\tuses the fastest, remembered per host and image in the profile (still images only)");
+        System.err.println("The options are:");
+        System.err.println("\t--kernel=scalar|vector: draw rows one pixel or one SIMD vector at a time (default scalar)");
+        System.err.println("\t\tvector needs: " + VectorSupport.HOW_TO_ENABLE);
+        System.err.printf("\t--palette[=resolution]: look grays up in a table of that many levels (default %d) [%d, %d]\n",
+                Palette.DEFAULT_GRAY_RESOLUTION, Palette.MIN_RESOLUTION, Palette.MAX_RESOLUTION);
+        System.err.println("\t--verify: compare the last image with a single-threaded, exact scalar one");
+        System.err.printf("\t--animate[=speed]: make every image a new frame of 3D noise, speed apart in time (default %s) [%s, %s]\n",
+                DEFAULT_SPEED, MIN_SPEED, MAX_SPEED);
+        System.err.println("\t--noise=plain|fbm|turbulence: one octave of noise, or several summed (default plain)");
+        System.err.printf("\t--octaves=N: octaves for fbm and turbulence (default %d) [%d, %d]\n",
+                FractalNoise.DEFAULT_OCTAVES, FractalNoise.MIN_OCTAVES, FractalNoise.MAX_OCTAVES);
+        System.err.printf("\t--lacunarity=L: how much finer each octave is (default %s) [%s, %s]\n",
+                FractalNoise.DEFAULT_LACUNARITY, MIN_LACUNARITY, MAX_LACUNARITY);
+        System.err.printf("\t\tlacunarity^(octaves - 1) is at most %.0f, so up to %d octaves at lacunarity %s\n",
+                FractalNoise.MAX_FREQUENCY, FractalNoise.maxOctaves(MAX_LACUNARITY), MAX_LACUNARITY);
+        System.err.printf("\t--gain=G: how much weaker each octave is (default %s) [%s, %s]\n",
+                FractalNoise.DEFAULT_GAIN, MIN_GAIN, MAX_GAIN);
+        System.err.printf("\t--store=file: draw into tiles in a memory-mapped file instead of the heap, for sizes up to %d\n",
+                TiledFrameStore.MAX_SIZE);
+        System.err.printf("\t--tile=size: the tile size for --store (default %d) [%d, %d]\n",
+                TiledFrameStore.DEFAULT_TILE_SIZE, TiledFrameStore.MIN_TILE_SIZE, TiledFrameStore.MAX_TILE_SIZE);
+        System.err.println("\t--stats[=file.json]: report per-thread busy time, items, pixels and queue polls, load");
+        System.err.println("\t\timbalance and frame latency percentiles, with a JSON summary in the file (or printed)");
+        System.err.println("\t\tand JFR events (hw1.RenderFrame, hw1.RenderThread) when recording");
+        WorkScheduler.printBlockOption(System.err, "\t");
+        AutoTuner.printOptions(System.err, "\t");
+        RenderCache.printOptions(System.err, "\t");
+        System.err.println("\t\tonly still images in memory, not --animate or --store");
+        System.err.println("\t--layout=linear|tiled: draw into BUFFER row by row, or into tiles of one cache line each");
+        System.err.println("\t\tthat are only copied to BUFFER to be shown or written (default linear)");
+        System.err.println("\t--output=directory: write every image to perlin-00000.format... instead of displaying one");
+        System.err.printf("\t--format=%s: the file format for --output (default %s)\n",
+                String.join("|", FrameWriter.FORMATS), FrameWriter.DEFAULT_FORMAT);
+        System.err.println("\t\trgba is raw 8-bit R, G, B, A per pixel, row by row, with no header");
     }
 
     // Parse the given string s as an int and check that it is within the given range. If not
@@ -215,137 +594,4 @@ public class Perlin2D {
         }
     }
 
-    abstract static class ThreadedPerlinDrawer extends PerlinDrawer implements Runnable{
-        volatile boolean running = true;
-        final int numberOfThreads, threadIndex;
-
-        ThreadedPerlinDrawer(int numberOfThreads, int threadIndex){
-            this.numberOfThreads = numberOfThreads;
-            this.threadIndex = threadIndex;
-        }
-
-        public void stopRunning()
-        {
-            running = false;
-        }
-    }
-
-    // X-STRIDE WORKER MODEL
-    private static class PerlinStride extends ThreadedPerlinDrawer
-    {
-        // Model-specific params
-        private final int startingRow;
-        private final int strideType;
-
-        public PerlinStride(int numberOfThreads, int startingRow, int strideType)
-        {
-            super(numberOfThreads, startingRow);
-            this.startingRow = startingRow;
-            this.strideType = strideType;
-        }
-
-        // The drawing code
-        @Override
-        public void run()
-        {
-            // ROW STRIDE
-            if(strideType == 1){
-                // Keep drawing rows as long as we are not done and are still running
-                for (int row = startingRow; running && row < SIZE; row += numberOfThreads)
-                {
-                    for (int column = 0; column < SIZE; column++)
-                    {
-                        computeSavePerlinColor(column, row);
-                    }
-                }
-            }
-
-            // BLOCK STRIDE
-            else if(strideType == 2){
-                int num_blocks = SIZE / BLOCK_SIZE;
-                for(int block = threadIndex; running && block < num_blocks; block += numberOfThreads){
-                    // draw rows in this block
-                    int start_row = block * BLOCK_SIZE;
-                    int end_row = Math.min((start_row + BLOCK_SIZE), SIZE);
-                    for (int row = start_row; row < end_row; row ++)
-                    {
-                        for (int column = 0; column < SIZE; column++)
-                        {
-                            computeSavePerlinColor(column, row);
-                        }
-                    }
-                }
-            }
-
-            // PIXEL STRIDE
-            else if(strideType == 3){
-                for(int pixel_id = threadIndex; pixel_id < BUFFER.length && running; pixel_id += numberOfThreads){
-                    int col = pixel_id % SIZE;
-                    int row = pixel_id / SIZE;
-
-                    computeSavePerlinColor(col, row);
-                }
-            }
-
-        }
-    }
-
-    private static class PerlinNextFree extends ThreadedPerlinDrawer
-    {
-        private final int itemType;
-        private final ConcurrentLinkedQueue<Integer> itemList;
-
-        public PerlinNextFree(int numberOfThreads, int threadNum, int itemType, ConcurrentLinkedQueue<Integer> itemList)
-        {
-            super(numberOfThreads, threadNum);
-            this.itemType = itemType;
-            this.itemList = itemList;
-        }
-
-        // The drawing code
-        @Override
-        public void run()
-        {
-            // NEXT FREE ROW
-            if(itemType == 4){
-                // itemList contains all rows
-                Integer row;
-                while((row = itemList.poll()) != null && running){
-                    for (int column = 0; column < SIZE; column++)
-                    {
-                        computeSavePerlinColor(column, row);
-                    }
-                }
-            }
-
-            // NEXT FREE PIXEL
-            else if(itemType == 5){
-                Integer pixel_id;
-                while((pixel_id = itemList.poll()) != null && running){
-                    int col = pixel_id % SIZE;
-                    int row = pixel_id / SIZE;
-
-                    computeSavePerlinColor(col, row);
-                }
-            }
-
-            // NEXT FREE BLOCK
-            else if(itemType == 6){
-                Integer block;
-                while((block = itemList.poll()) != null && running){
-                    int start_row = block * BLOCK_SIZE;
-                    int end_row = Math.min((start_row + BLOCK_SIZE), SIZE);
-                    for (int row = start_row; row < end_row; row ++)
-                    {
-                        for (int column = 0; column < SIZE; column++)
-                        {
-                            computeSavePerlinColor(column, row);
-                        }
-                    }
-                }
-            }
-
-        }
-    }
-
 }
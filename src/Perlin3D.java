@@ -0,0 +1,157 @@
+import static java.lang.Math.*;
+
+// Three dimensional Perlin noise, for animating Perlin2D with time as the z coordinate.
+// It uses PerlinDrawer's lattice hash and smootherstep interpolate, so at z = 0 the
+// gradients point the same way in the x-y plane as the two dimensional ones do.
+//
+// An animation frame is one slice of the noise at a fixed z, and for a fixed z the
+// noise is cheaper than it looks: the z weight and both z distances are the same for
+// every pixel, and interpolate is linear in its end points, so the two z layers of the
+// lattice collapse into one two dimensional lattice of blended gradients (plus a
+// constant for the z part of each dot product). A Slice precomputes that lattice once
+// per frame and a pixel then costs the same four corners as two dimensional noise
+// instead of eight.
+public class Perlin3D
+{
+    // Mixes iz into the hash of (ix, iy), any large odd number will do
+    private static final int Z_STEP = 0x5bd1e995;
+
+    // Dot product of the gradient at lattice point (ix, iy, iz) and the vector (dx, dy, dz).
+    // The gradient is a unit vector: its z component comes from one hash and the
+    // direction in the x-y plane from another.
+    static double dot(int ix, int iy, int iz, double dx, double dy, double dz)
+    {
+        double azimuth = PerlinDrawer.gradientAngle(ix, iy + Z_STEP * iz);
+        double gz = gradientZ(ix, iy, iz);
+        double r = sqrt(1.0 - gz * gz);
+        return r * sin(azimuth) * dx + r * cos(azimuth) * dy + gz * dz;
+    }
+
+    // A triangle wave of a uniformly distributed angle is uniform in [-1, 1], which is what
+    // makes the gradients uniform over the sphere.
+    private static double gradientZ(int ix, int iy, int iz)
+    {
+        return 2.0 / PI * asin(sin(PerlinDrawer.gradientAngle(iz, ix ^ iy)));
+    }
+
+    // The noise at (x, y, z) straight from the eight surrounding lattice points. This is the
+    // reference a Slice is checked against. Coordinates must not be negative.
+    static double noise(double x, double y, double z)
+    {
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int z0 = (int) z;
+
+        double sx = x - x0;
+        double sy = y - y0;
+        double sz = z - z0;
+
+        return PerlinDrawer.interpolate(layer(x0, y0, z0, sx, sy, sz), layer(x0, y0, z0 + 1, sx, sy, sz - 1), sz);
+    }
+
+    // Two dimensional noise over the lattice layer iz, dz away from the point
+    private static double layer(int x0, int y0, int iz, double sx, double sy, double dz)
+    {
+        double ix0 = PerlinDrawer.interpolate(dot(x0, y0, iz, sx, sy, dz), dot(x0 + 1, y0, iz, sx - 1, sy, dz), sx);
+        double ix1 = PerlinDrawer.interpolate(dot(x0, y0 + 1, iz, sx, sy - 1, dz),
+                dot(x0 + 1, y0 + 1, iz, sx - 1, sy - 1, dz), sx);
+        return PerlinDrawer.interpolate(ix0, ix1, sy);
+    }
+
+    // The noise at a fixed z for lattice points [minX, maxX] x [minY, maxY]. Points outside
+    // that are still right, just computed the slow way.
+    public static Slice slice(double z, int minX, int minY, int maxX, int maxY)
+    {
+        return new Slice(z, minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    // The slice that covers Perlin2D's screen
+    public static Slice screenSlice(double z)
+    {
+        return slice(z, 0, 0, (int) ceil(Perlin2D.WIDTH) + 1, (int) ceil(Perlin2D.HEIGHT) + 1);
+    }
+
+    public static final class Slice
+    {
+        private final double z;
+        private final int z0;
+        private final double sz;
+
+        // Lattice point (ix, iy) is at index (iy - minY) * width + (ix - minX), its blended
+        // gradient is (gx, gy) and c is the z part of its dot product.
+        private final int minX, minY, width, height;
+        private final double[] gx, gy, c;
+
+        private Slice(double z, int minX, int minY, int width, int height)
+        {
+            this.z = z;
+            this.z0 = (int) z;
+            this.sz = z - z0;
+            this.minX = minX;
+            this.minY = minY;
+            this.width = width;
+            this.height = height;
+            gx = new double[width * height];
+            gy = new double[width * height];
+            c = new double[width * height];
+
+            for (int y = 0; y < height; y++)
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    int i = y * width + x;
+                    // the gradients' x, y and z components, one dot product at a time
+                    int ix = minX + x;
+                    int iy = minY + y;
+                    gx[i] = PerlinDrawer.interpolate(dot(ix, iy, z0, 1, 0, 0), dot(ix, iy, z0 + 1, 1, 0, 0), sz);
+                    gy[i] = PerlinDrawer.interpolate(dot(ix, iy, z0, 0, 1, 0), dot(ix, iy, z0 + 1, 0, 1, 0), sz);
+                    c[i] = PerlinDrawer.interpolate(dot(ix, iy, z0, 0, 0, sz), dot(ix, iy, z0 + 1, 0, 0, sz - 1), sz);
+                }
+            }
+        }
+
+        public double z()
+        {
+            return z;
+        }
+
+        // The blended dot product for lattice point (ix, iy)
+        private double blendedDot(int ix, int iy, double dx, double dy)
+        {
+            int x = ix - minX;
+            int y = iy - minY;
+            if (x >= 0 && y >= 0 && x < width && y < height)
+            {
+                int i = y * width + x;
+                return dx * gx[i] + dy * gy[i] + c[i];
+            }
+            return PerlinDrawer.interpolate(Perlin3D.dot(ix, iy, z0, dx, dy, sz),
+                    Perlin3D.dot(ix, iy, z0 + 1, dx, dy, sz - 1), sz);
+        }
+
+        // The noise at (x, y, z). Coordinates must not be negative.
+        public double value(double x, double y)
+        {
+            int x0 = (int) x;
+            int y0 = (int) y;
+
+            double sx = x - x0;
+            double sy = y - y0;
+
+            double ix0 = PerlinDrawer.interpolate(blendedDot(x0, y0, sx, sy), blendedDot(x0 + 1, y0, sx - 1, sy), sx);
+            double ix1 = PerlinDrawer.interpolate(blendedDot(x0, y0 + 1, sx, sy - 1),
+                    blendedDot(x0 + 1, y0 + 1, sx - 1, sy - 1), sx);
+            return PerlinDrawer.interpolate(ix0, ix1, sy);
+        }
+
+        // noise[offset + col] gets the noise at (xScale * col + xOrigin, y) for every col in
+        // [colStart, colEnd), like PerlinDrawer.fillRow but before turning it into a color.
+        public void fillRow(float[] noise, int offset, int colStart, int colEnd, double xScale, double xOrigin, double y)
+        {
+            for (int col = colStart; col < colEnd; col++)
+            {
+                noise[offset + col] = (float) value(xScale * col + xOrigin, y);
+            }
+        }
+    }
+}
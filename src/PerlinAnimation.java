@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Animated Perlin noise: frame n is the Perlin3D slice at z = n * speed. Each frame goes
+// through three stages, each on its own thread(s), so they all work at once on
+// different frames:
+//   render:       the noise values, on the RenderPool with one of the WorkScheduler
+//                 models (the calling thread drives it)
+//   post-process: noise values to colors, with PerlinDrawer's grays or palette
+//   output:       the colors to a FrameWriter, and the last frame to the caller
+// The frames come from a ring of RING_SIZE reusable buffers passed along by blocking
+// queues. When output falls behind, every buffer ends up waiting for it and render
+// blocks until one comes back around, so memory use is fixed no matter how many frames
+// are drawn.
+public class PerlinAnimation
+{
+    // Frames in flight, at least one per stage so none of them has to wait on another
+    public static int RING_SIZE = 3;
+
+    private static final class Frame
+    {
+        final float[] noise;
+        final int[] pixels;
+        int number;
+        boolean last;
+
+        Frame(int size)
+        {
+            noise = new float[size * size];
+            pixels = new int[size * size];
+        }
+    }
+
+    // Passed down the stages after the last frame
+    private static final Frame END = new Frame(0);
+
+    private final int size;
+    private final double speed;
+    private final FrameWriter writer;
+
+    private final BlockingQueue<Frame> free;
+    private final BlockingQueue<Frame> rendered;
+    private final BlockingQueue<Frame> processed;
+    private volatile Throwable failure;
+
+    // Animate size x size frames, moving speed lattice units through time per frame.
+    // writer may be null to only keep the last frame.
+    public PerlinAnimation(int size, double speed, FrameWriter writer)
+    {
+        this.size = size;
+        this.speed = speed;
+        this.writer = writer;
+
+        free = new ArrayBlockingQueue<>(RING_SIZE);
+        rendered = new ArrayBlockingQueue<>(RING_SIZE + 1);
+        processed = new ArrayBlockingQueue<>(RING_SIZE + 1);
+        for (int i = 0; i < RING_SIZE; i++)
+        {
+            free.add(new Frame(size));
+        }
+    }
+
+    // The time (z) of the given frame
+    public double time(int frameNumber)
+    {
+        return frameNumber * speed;
+    }
+
+    // Draw frames [0, frames) and copy the colors of the last one into lastFrame. Problems
+    // in any stage are rethrown here once the stages have stopped.
+    public void run(RenderPool pool, int workDistModel, int frames, int[] lastFrame)
+    {
+        Thread postProcess = new Thread(this::postProcess, "Perlin Animation: post-process");
+        Thread output = new Thread(() -> output(lastFrame), "Perlin Animation: output");
+        postProcess.start();
+        output.start();
+
+        try
+        {
+            for (int n = 0; n < frames && failure == null; n++)
+            {
+                Frame frame = free.take();
+                frame.number = n;
+                frame.last = n == frames - 1;
+                render(pool, workDistModel, frame);
+                rendered.put(frame);
+            }
+        } catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            fail(ex);
+        } catch (RuntimeException ex)
+        {
+            fail(ex);
+        }
+
+        try
+        {
+            rendered.put(END);
+            postProcess.join();
+            output.join();
+        } catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            fail(ex);
+        }
+
+        Throwable t = failure;
+        if (t instanceof IOException)
+        {
+            throw new UncheckedIOException("Could not write a frame", (IOException) t);
+        }
+        if (t != null)
+        {
+            throw new IllegalStateException("The animation failed", t);
+        }
+    }
+
+    private void render(RenderPool pool, int workDistModel, Frame frame)
+    {
+        final Perlin3D.Slice slice = Perlin3D.screenSlice(time(frame.number));
+        final float[] noise = frame.noise;
+        final double xScale = Perlin2D.WIDTH / size;
+        WorkScheduler.drawFrame(pool, (row, colStart, colEnd) ->
+                slice.fillRow(noise, row * size, colStart, colEnd, xScale, 0.0,
+                        Perlin2D.HEIGHT - (Perlin2D.HEIGHT / size * row)), size, size, workDistModel);
+    }
+
+    private void postProcess()
+    {
+        try
+        {
+            Frame frame;
+            while ((frame = rendered.take()) != END)
+            {
+                // after a problem the frames still go around, so render never waits forever
+                if (failure == null)
+                {
+                    try
+                    {
+                        final float[] noise = frame.noise;
+                        final int[] pixels = frame.pixels;
+                        for (int i = 0; i < pixels.length; i++)
+                        {
+                            pixels[i] = PerlinDrawer.grayColor(noise[i]);
+                        }
+                    } catch (RuntimeException ex)
+                    {
+                        fail(ex);
+                    }
+                }
+                processed.put(frame);
+            }
+            processed.put(END);
+        } catch (InterruptedException ex)
+        {
+            fail(ex);
+        }
+    }
+
+    private void output(int[] lastFrame)
+    {
+        try
+        {
+            Frame frame;
+            while ((frame = processed.take()) != END)
+            {
+                if (failure == null)
+                {
+                    try
+                    {
+                        if (writer != null)
+                        {
+                            writer.writeNow(frame.pixels);
+                        }
+                        if (frame.last && lastFrame != null)
+                        {
+                            System.arraycopy(frame.pixels, 0, lastFrame, 0, frame.pixels.length);
+                        }
+                    } catch (IOException | RuntimeException ex)
+                    {
+                        fail(ex);
+                    }
+                }
+                free.put(frame);
+            }
+        } catch (InterruptedException ex)
+        {
+            fail(ex);
+        }
+    }
+
+    // Remember the first problem, the stages stop doing work once there is one
+    private synchronized void fail(Throwable t)
+    {
+        if (failure == null)
+        {
+            failure = t;
+        }
+    }
+}
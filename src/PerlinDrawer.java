@@ -5,6 +5,36 @@ import static java.lang.Math.*;
 
 public class PerlinDrawer{
 
+    // Draw rows with PerlinVectorKernel instead of fillRow. Only ever set when
+    // VectorSupport.AVAILABLE, see useVectorKernel.
+    private static boolean vectorKernel = false;
+
+    // Map noise values to grays through this table rather than Color.HSBtoRGB, if set.
+    static Palette palette = null;
+
+    public static void usePalette(Palette grays){
+        palette = grays;
+    }
+
+    // Draw octaves of this instead of plain noise, if set.
+    static FractalNoise fractal = null;
+
+    public static void useFractal(FractalNoise noise){
+        fractal = noise;
+    }
+
+    // Ask for the SIMD row kernel. Returns whether it will actually be used, which it
+    // will not be if the Vector API module is missing.
+    public static boolean useVectorKernel(boolean use){
+        vectorKernel = use && VectorSupport.AVAILABLE;
+        return vectorKernel;
+    }
+
+    // Whether drawRow uses the SIMD kernel, which it only has for plain noise
+    static boolean vectorKernel(){
+        return vectorKernel && fractal == null;
+    }
+
     // Convert the given point (x, y) in graphics coordinates into Cartesian
     // coordinates (we only support showing the first quadrant).
     static Point2D.Double convertScreenToCartesian(double x, double y, int screenWidth, int screenHeight)
@@ -21,6 +51,13 @@ public class PerlinDrawer{
 
     // Create a pseudorandom direction vector.
     static Point2D.Double randomGradient(int ix, int iy){
+        double random = gradientAngle(ix, iy);
+
+        return new Point2D.Double(sin(random),  cos(random));
+    }
+
+    // Hash the lattice point to the angle of its gradient vector.
+    static double gradientAngle(int ix, int iy){
         long w = 8 * Integer.BYTES;
         long s = w / 2;
 
@@ -34,26 +71,28 @@ public class PerlinDrawer{
         a ^= b << s | b >>> w-s;
         a *= 2048419325;
 
-        double random = a * (3.14159265 / ~(~0 >>> 1));
-
-        return new Point2D.Double(sin(random),  cos(random));
+        return a * (3.14159265 / ~(~0 >>> 1));
     }
 
     // Compute dot product of distance and gradient vectors.
+    // The gradient comes out of the GradientTable rather than randomGradient.
     static double dotGridGradient(int ix, int iy, double x, double y){
 
-        Point2D.Double gradient = randomGradient(ix, iy);
-
         // get distance vector
         double dx = x - (double)ix;
         double dy = y - (double)iy;
 
         // dot product
-        return (dx * gradient.getX() + dy * gradient.getY());
+        return GradientTable.dot(ix, iy, dx, dy);
     }
 
     // Compute the Perlin noise value (converted to an RGB-encoded int) for the specified coordinates.
     static int perlinColor(double x, double y){
+        return grayColor(perlinValue(x, y));
+    }
+
+    // Compute the Perlin noise value for the specified coordinates.
+    static double perlinValue(double x, double y){
         // setup coords
         int x0 = (int)x;
         int x1 = x0 + 1;
@@ -77,21 +116,154 @@ public class PerlinDrawer{
 
         value = interpolate(ix0, ix1, sy);
 
-        return Color.getHSBColor(0.0f, 0.0f, (float)abs(value)).getRGB();
+        return value;
+    }
+
+    // Turn a noise value into a gray
+    static int grayColor(double value){
+        final Palette grays = palette;
+        if(grays != null){
+            return grays.gray((float)abs(value));
+        }
+        // same as Color.getHSBColor(...).getRGB() without making the Color
+        return Color.HSBtoRGB(0.0f, 0.0f, (float)abs(value));
     }
 
     public static void computeSavePerlinColor(int col, int row){
-        final Point2D.Double cartesianPoint = convertScreenToCartesian(col, row, Perlin2D.SIZE, Perlin2D.SIZE);
-        Perlin2D.BUFFER[row * Perlin2D.SIZE + col] = perlinColor(cartesianPoint.getX(), cartesianPoint.getY());
+        final int size = Perlin2D.SIZE;
+        // convertScreenToCartesian without the Point2D
+        final double x = Perlin2D.WIDTH / size * col;
+        final double y = Perlin2D.HEIGHT - (Perlin2D.HEIGHT / size * row);
+        Perlin2D.BUFFER[row * size + col] = perlinColor(x, y);
+    }
+
+    // Draw columns [colStart, colEnd) of a screen row into BUFFER. Allocates nothing.
+    public static void computeSavePerlinRow(int row, int colStart, int colEnd){
+        final int size = Perlin2D.SIZE;
+        final double y = Perlin2D.HEIGHT - (Perlin2D.HEIGHT / size * row);
+        drawRow(Perlin2D.BUFFER, row * size, colStart, colEnd, Perlin2D.WIDTH / size, 0.0, y);
+    }
+
+    // The pixels of the tile being drawn by each thread, see computeSavePerlinTile
+    private static final ThreadLocal<int[]> TILE = new ThreadLocal<>();
+
+    // Draw tile (tileX, tileY) of the store's image into the store. Pixels get exactly the
+    // colors computeSavePerlinRow would give them in an image of the same size.
+    public static void computeSavePerlinTile(TiledFrameStore store, int tileX, int tileY){
+        final int tileSize = store.tileSize();
+        int[] pixels = TILE.get();
+        if(pixels == null || pixels.length != tileSize * tileSize){
+            pixels = new int[tileSize * tileSize];
+            TILE.set(pixels);
+        }
+
+        final int col0 = tileX * tileSize;
+        final int row0 = tileY * tileSize;
+        final int colEnd = Math.min(col0 + tileSize, store.width());
+        final int rowEnd = Math.min(row0 + tileSize, store.height());
+        for(int row = row0; row < rowEnd; row++){
+            final double y = Perlin2D.HEIGHT - (Perlin2D.HEIGHT / store.height() * row);
+            // offset so that pixels[...] of image column col0 is the start of the tile row
+            drawRow(pixels, (row - row0) * tileSize - col0, col0, colEnd, Perlin2D.WIDTH / store.width(), 0.0, y);
+        }
+        store.putTile(tileX, tileY, pixels);
+    }
+
+    // The rows of the tiles being drawn by each thread, see computeSavePerlinTiles
+    private static final ThreadLocal<int[]> TILE_ROWS = new ThreadLocal<>();
+
+    // Draw tiles [tileXStart, tileXEnd) of row tileY of the frame's tiles into the frame,
+    // a cache line each. The span is drawn row by row, as computeSavePerlinRow would draw
+    // it, and then put a tile at a time. Allocates nothing once the thread has its rows.
+    public static void computeSavePerlinTiles(CacheLineFrame frame, int tileY, int tileXStart, int tileXEnd){
+        final int tiles = tileXEnd - tileXStart;
+        int[] pixels = TILE_ROWS.get();
+        if(pixels == null || pixels.length < (tiles + 1) * CacheLineFrame.TILE_PIXELS){
+            pixels = new int[(frame.tilesX() + 1) * CacheLineFrame.TILE_PIXELS];
+            TILE_ROWS.set(pixels);
+        }
+
+        // pixels holds the span's rows one after another, spanWidth wide, then one tile
+        // being regrouped
+        final int spanWidth = tiles * CacheLineFrame.TILE_WIDTH;
+        final int col0 = tileXStart * CacheLineFrame.TILE_WIDTH;
+        final int colEnd = Math.min(col0 + spanWidth, frame.width());
+        final int row0 = tileY * CacheLineFrame.TILE_HEIGHT;
+        final int rowEnd = Math.min(row0 + CacheLineFrame.TILE_HEIGHT, frame.height());
+        for(int row = row0; row < rowEnd; row++){
+            final double y = Perlin2D.HEIGHT - (Perlin2D.HEIGHT / frame.height() * row);
+            drawRow(pixels, (row - row0) * spanWidth - col0, col0, colEnd, Perlin2D.WIDTH / frame.width(), 0.0, y);
+        }
+
+        final int tile = tiles * CacheLineFrame.TILE_PIXELS;
+        for(int t = 0; t < tiles; t++){
+            for(int r = 0; r < CacheLineFrame.TILE_HEIGHT; r++){
+                System.arraycopy(pixels, r * spanWidth + t * CacheLineFrame.TILE_WIDTH,
+                        pixels, tile + r * CacheLineFrame.TILE_WIDTH, CacheLineFrame.TILE_WIDTH);
+            }
+            frame.putTile(tileXStart + t, tileY, pixels, tile);
+        }
+    }
+
+    // Draw a size x size square of the noise into pixels: pixel (col, row) gets the color
+    // of (x0 + scale * col, y0 - scale * row). Only needs the palette and kernel set up,
+    // not SIZE or BUFFER, so different threads can draw different squares at once.
+    public static void drawSquare(int[] pixels, int size, double x0, double y0, double scale){
+        for(int row = 0; row < size; row++){
+            drawSquareRow(pixels, size, row, 0, size, x0, y0, scale);
+        }
+    }
+
+    // Columns [colStart, colEnd) of one row of drawSquare's square
+    public static void drawSquareRow(int[] pixels, int size, int row, int colStart, int colEnd,
+                                     double x0, double y0, double scale){
+        drawRow(pixels, row * size, colStart, colEnd, scale, x0, y0 - scale * row);
+    }
+
+    // fillRow with whichever kernel is in use
+    private static void drawRow(int[] buffer, int offset, int colStart, int colEnd, double xScale, double xOrigin,
+                                double y){
+        final FractalNoise octaves = fractal;
+        if(octaves != null){
+            octaves.fillRow(buffer, offset, colStart, colEnd, xScale, xOrigin, y);
+        }
+        else if(vectorKernel){
+            PerlinVectorKernel.fillRow(buffer, offset, colStart, colEnd, xScale, xOrigin, y);
+        }
+        else{
+            fillRow(buffer, offset, colStart, colEnd, xScale, xOrigin, y);
+        }
+    }
+
+    // The span kernel: buffer[offset + col] gets the color of Cartesian point
+    // (xScale * col + xOrigin, y) for every col in [colStart, colEnd). Primitives only,
+    // so nothing is allocated whether or not the JIT manages to inline it all.
+    public static void fillRow(int[] buffer, int offset, int colStart, int colEnd,
+                               double xScale, double xOrigin, double y){
+        for (int col = colStart; col < colEnd; col++)
+        {
+            buffer[offset + col] = perlinColor(xScale * col + xOrigin, y);
+        }
+    }
+
+    // The reference for drawRow, whatever the kernel: the plain scalar kernel, or the
+    // fractal noise summed a pixel at a time in double.
+    public static void fillExactRow(int[] buffer, int offset, int colStart, int colEnd, double xScale, double y){
+        final FractalNoise octaves = fractal;
+        if(octaves == null){
+            fillRow(buffer, offset, colStart, colEnd, xScale, 0.0, y);
+            return;
+        }
+        for (int col = colStart; col < colEnd; col++)
+        {
+            buffer[offset + col] = grayColor(octaves.value(xScale * col, y));
+        }
     }
 
     public static void runCompleteDraw(){
         for (int row = 0; row < Perlin2D.SIZE; row ++)
         {
-            for (int column = 0; column < Perlin2D.SIZE; column++)
-            {
-                computeSavePerlinColor(column, row);
-            }
+            computeSavePerlinRow(row, 0, Perlin2D.SIZE);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD version of PerlinDrawer.fillRow using the incubating Vector API. Each pass
+// evaluates as many adjacent pixels as the CPU has double lanes (4 with AVX2, 8 with
+// AVX-512). Only load this class when VectorSupport.AVAILABLE is true.
+//
+// The arithmetic is done in exactly the order PerlinDrawer does it (no fused
+// multiply-adds) so the image is bit-identical to the scalar one.
+public class PerlinVectorKernel
+{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    // As many float lanes as double lanes, for the color conversion. It has to be a
+    // constant or C2 cannot intrinsify the conversion and boxes the vectors instead.
+    private static final VectorSpecies<Float> FLOAT_SPECIES =
+            LANES == 8 ? FloatVector.SPECIES_256 : LANES == 4 ? FloatVector.SPECIES_128 : FloatVector.SPECIES_64;
+
+    // per-thread space for the unpacked brightness values
+    private static final ThreadLocal<float[]> GRAYS = ThreadLocal.withInitial(() -> new float[LANES]);
+
+    // 0, 1, 2, ... used to turn a starting column into a vector of columns
+    private static final DoubleVector IOTA;
+
+    static
+    {
+        double[] iota = new double[LANES];
+        for (int i = 0; i < LANES; i++)
+        {
+            iota[i] = i;
+        }
+        IOTA = DoubleVector.fromArray(SPECIES, iota, 0);
+    }
+
+    private PerlinVectorKernel()
+    {
+    }
+
+    public static int lanes()
+    {
+        return LANES;
+    }
+
+    // Same contract as PerlinDrawer.fillRow.
+    public static void fillRow(int[] buffer, int offset, int colStart, int colEnd,
+                               double xScale, double xOrigin, double y)
+    {
+        final int vectorEnd = colStart + (colEnd - colStart) / LANES * LANES;
+
+        // lattice rows and the vertical weight are the same for the whole row
+        final int y0 = (int) y;
+        final int y1 = y0 + 1;
+        final double dy0 = y - (double) y0;
+        final double dy1 = y - (double) y1;
+        final double fadeY = fade(y - (float) y0);
+
+        // the lattice columns the row touches, (int) truncates so take both ends
+        final double xFirst = xScale * colStart + xOrigin;
+        final double xLast = xScale * (colEnd - 1) + xOrigin;
+        final GradientTable table = vectorEnd > colStart
+                ? GradientTable.covering(Math.min((int) xFirst, (int) xLast), y0,
+                        Math.max((int) xFirst, (int) xLast) + 1, y1)
+                : null;
+        if (table == null)
+        {
+            PerlinDrawer.fillRow(buffer, offset, colStart, colEnd, xScale, xOrigin, y);
+            return;
+        }
+
+        final float[] grays = GRAYS.get();
+        final Palette palette = PerlinDrawer.palette;
+        final float grayScale = palette == null ? 255.0f : palette.resolution() - 1;
+        final int row0 = (y0 - table.minY) * table.width - table.minX;
+        final int row1 = (y1 - table.minY) * table.width - table.minX;
+
+        for (int col = colStart; col < vectorEnd; col += LANES)
+        {
+            DoubleVector x = IOTA.add((double) col).mul(xScale).add(xOrigin);
+
+            // Neighbouring pixels nearly always share a lattice cell, then x0 and the four
+            // gradients are the same for every lane. The few vectors that straddle a cell
+            // boundary are drawn one pixel at a time, which keeps the loop simple enough
+            // for C2 to keep every vector in registers.
+            int x0 = (int) (xScale * col + xOrigin);
+            if (x0 != (int) (xScale * (col + LANES - 1) + xOrigin))
+            {
+                PerlinDrawer.fillRow(buffer, offset, col, col + LANES, xScale, xOrigin, y);
+                continue;
+            }
+
+            DoubleVector dx0 = x.sub((double) x0);
+            DoubleVector dx1 = x.sub((double) (x0 + 1));
+
+            int i00 = row0 + x0;
+            int i01 = row1 + x0;
+            DoubleVector n00 = dx0.mul(table.gx[i00]).add(dy0 * table.gy[i00]);
+            DoubleVector n10 = dx1.mul(table.gx[i00 + 1]).add(dy0 * table.gy[i00 + 1]);
+            DoubleVector n01 = dx0.mul(table.gx[i01]).add(dy1 * table.gy[i01]);
+            DoubleVector n11 = dx1.mul(table.gx[i01 + 1]).add(dy1 * table.gy[i01 + 1]);
+
+            DoubleVector fadeX = fade(dx0);
+            DoubleVector ix0 = n10.sub(n00).mul(fadeX).add(n00);
+            DoubleVector ix1 = n11.sub(n01).mul(fadeX).add(n01);
+            DoubleVector value = ix1.sub(ix0).mul(fadeY).add(ix0);
+
+            // Color.HSBtoRGB(0, 0, (float) abs(value)): gray = (int) (brightness * 255f + 0.5f),
+            // or the palette index (int) (brightness * (resolution - 1) + 0.5f). The float
+            // math is vectorized, the (int) is not as C2 in JDK 17 cannot vectorize float
+            // to int casts.
+            FloatVector brightness = (FloatVector) value.abs().convertShape(VectorOperators.D2F, FLOAT_SPECIES, 0);
+            brightness.mul(grayScale).add(0.5f).intoArray(grays, 0);
+            if (palette == null)
+            {
+                for (int lane = 0; lane < LANES; lane++)
+                {
+                    int gray = (int) grays[lane];
+                    buffer[offset + col + lane] = 0xff000000 | (gray << 16) | (gray << 8) | gray;
+                }
+            }
+            else
+            {
+                for (int lane = 0; lane < LANES; lane++)
+                {
+                    buffer[offset + col + lane] = palette.color(Math.min((int) grays[lane], (int) grayScale));
+                }
+            }
+        }
+
+        // whatever does not fill a vector
+        PerlinDrawer.fillRow(buffer, offset, vectorEnd, colEnd, xScale, xOrigin, y);
+    }
+
+    // The smootherstep weight from PerlinDrawer.interpolate, (w * (w * 6 - 15) + 10) * w^3
+    private static DoubleVector fade(DoubleVector w)
+    {
+        return w.mul(6.0).sub(15.0).mul(w).add(10.0).mul(w).mul(w).mul(w);
+    }
+
+    private static double fade(double w)
+    {
+        return (w * (w * 6.0 - 15.0) + 10.0) * w * w * w;
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Finished images kept by a key naming everything that went into drawing them (see key),
+// so asking for the same image again is a copy rather than a render. Two tiers:
+//   memory: the images themselves, least recently used dropped first once they take up
+//           more than the memory budget
+//   disk:   optional, a gzipped file per image in a directory, least recently used
+//           dropped first once the files take up more than the disk budget. Every put is
+//           written through to it, so it outlives the process. Use is tracked by the
+//           files' modification times, so the order carries over from run to run too.
+// A disk hit is put back in memory. Problems with the disk tier are counted and
+// otherwise ignored, the image is simply drawn again.
+//
+// Safe to use from any number of threads.
+public class RenderCache
+{
+    public static final int DEFAULT_MEMORY_MB = 64;
+    public static final int DEFAULT_DISK_MB = 512;
+    public static final int MIN_MB = 1;
+    public static final int MAX_MB = 1 << 20;
+
+    // What a cached image costs besides its pixels, the key and the map entry, roughly
+    private static final int ENTRY_BYTES = 128;
+
+    // Start of every file, then the key, the number of pixels and the pixels
+    private static final int MAGIC = 0x52434631;
+    private static final String SUFFIX = ".frame.gz";
+
+    private final long memoryBudget;
+    private final LinkedHashMap<String, int[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+
+    // Null for no disk tier. disk maps file names to their sizes, oldest use first, and
+    // is the lock for it and for moving files into place and deleting them. Reading and
+    // writing the files themselves happens outside it.
+    private final Path directory;
+    private final long diskBudget;
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes = 0;
+
+    private final AtomicLong memoryHits = new AtomicLong(), diskHits = new AtomicLong(), misses = new AtomicLong();
+    private final AtomicLong memoryHitNanos = new AtomicLong(), diskHitNanos = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong(), diskEvictions = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong(), diskErrors = new AtomicLong();
+
+    // A cache of up to memoryBudget bytes of images, and diskBudget bytes of files in
+    // directory if it is not null. Files already in directory are kept, oldest first out.
+    public RenderCache(long memoryBudget, Path directory, long diskBudget) throws IOException
+    {
+        this.memoryBudget = memoryBudget;
+        this.directory = directory;
+        this.diskBudget = diskBudget;
+        if (directory != null)
+        {
+            Files.createDirectories(directory);
+            indexDisk();
+        }
+    }
+
+    // The cache asked for by --cache[=directory], --cache-memory=MB and --cache-disk=MB, or
+    // null if there is no --cache. The names must be among the program's known Options.
+    public static RenderCache fromOptions(Options options) throws IOException
+    {
+        if (!options.has("cache"))
+        {
+            return null;
+        }
+        final long memory = options.getInt("cache-memory", DEFAULT_MEMORY_MB, MIN_MB, MAX_MB) * 1024L * 1024L;
+        final long disk = options.getInt("cache-disk", DEFAULT_DISK_MB, MIN_MB, MAX_MB) * 1024L * 1024L;
+        final String directory = options.get("cache", "");
+        return new RenderCache(memory, directory.isEmpty() ? null : Paths.get(directory), disk);
+    }
+
+    public static void printOptions(PrintStream out, String indent)
+    {
+        out.println(indent + "--cache[=directory]: keep finished images by their parameters and reuse them,");
+        out.println(indent + "\tin memory, and gzipped in directory too if given so they outlive the run");
+        out.printf(indent + "--cache-memory=MB: the memory the cached images may take (default %d) [%d, %d]\n",
+                DEFAULT_MEMORY_MB, MIN_MB, MAX_MB);
+        out.printf(indent + "--cache-disk=MB: the disk the cache's files may take (default %d) [%d, %d]\n",
+                DEFAULT_DISK_MB, MIN_MB, MAX_MB);
+    }
+
+    // Everything that decides the pixels of an image, as "renderer name=value ...". Doubles
+    // are written in full, so 0.5 and 0.50 give the same key.
+    public static String key(String renderer, Object... namesAndValues)
+    {
+        StringBuilder key = new StringBuilder(renderer);
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2)
+        {
+            key.append(' ').append(namesAndValues[i]).append('=').append(namesAndValues[i + 1]);
+        }
+        return key.toString();
+    }
+
+    // Copy the image cached for key into image and return true, or return false if there is
+    // none (of that many pixels).
+    public boolean get(String key, int[] image)
+    {
+        final long start = System.nanoTime();
+        synchronized (memory)
+        {
+            int[] cached = memory.get(key);
+            if (cached != null && cached.length == image.length)
+            {
+                System.arraycopy(cached, 0, image, 0, image.length);
+                memoryHits.incrementAndGet();
+                memoryHitNanos.addAndGet(System.nanoTime() - start);
+                return true;
+            }
+        }
+
+        if (directory != null && readDisk(key, image))
+        {
+            putMemory(key, image.clone());
+            diskHits.incrementAndGet();
+            diskHitNanos.addAndGet(System.nanoTime() - start);
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    // Cache a copy of image as the image for key.
+    public void put(String key, int[] image)
+    {
+        puts.incrementAndGet();
+        putMemory(key, image.clone());
+        if (directory != null)
+        {
+            writeDisk(key, image);
+        }
+    }
+
+    // get, or if that misses run render, which must leave the image in image, and put
+    // it. Returns whether it was a hit.
+    public boolean getOrRender(String key, int[] image, Runnable render)
+    {
+        if (get(key, image))
+        {
+            return true;
+        }
+        render.run();
+        put(key, image);
+        return false;
+    }
+
+    private void putMemory(String key, int[] image)
+    {
+        final long bytes = bytes(image);
+        synchronized (memory)
+        {
+            int[] old = memory.remove(key);
+            if (old != null)
+            {
+                memoryBytes -= bytes(old);
+            }
+            // an image bigger than the whole budget would only push everything else out
+            if (bytes > memoryBudget)
+            {
+                return;
+            }
+            Iterator<Map.Entry<String, int[]>> oldest = memory.entrySet().iterator();
+            while (memoryBytes + bytes > memoryBudget && oldest.hasNext())
+            {
+                memoryBytes -= bytes(oldest.next().getValue());
+                oldest.remove();
+                memoryEvictions.incrementAndGet();
+            }
+            memory.put(key, image);
+            memoryBytes += bytes;
+        }
+    }
+
+    private static long bytes(int[] image)
+    {
+        return 4L * image.length + ENTRY_BYTES;
+    }
+
+    // The files already in the directory, least recently used first
+    private void indexDisk() throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> found = Files.newDirectoryStream(directory, "*" + SUFFIX))
+        {
+            for (Path file : found)
+            {
+                files.add(file);
+            }
+        }
+        final Map<Path, FileTime> used = new LinkedHashMap<>();
+        for (Path file : files)
+        {
+            used.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort((x, y) -> used.get(x).compareTo(used.get(y)));
+        synchronized (disk)
+        {
+            for (Path file : files)
+            {
+                long size = Files.size(file);
+                disk.put(file.getFileName().toString(), size);
+                diskBytes += size;
+            }
+            evictDisk();
+        }
+    }
+
+    // The file is read and decoded without the disk lock, which is only held to look it up
+    // in the index. Files are only ever replaced by an atomic move, so it is the whole of
+    // the old image or of the new one, and one evicted meanwhile is simply not there.
+    private boolean readDisk(String key, int[] image)
+    {
+        final String name = fileName(key);
+        final Long indexed;
+        synchronized (disk)
+        {
+            indexed = disk.get(name);
+        }
+        if (indexed == null)
+        {
+            return false;
+        }
+        final Path file = directory.resolve(name);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file)))))
+        {
+            // a file for a different key with the same hash, or a different size, is a miss
+            if (in.readInt() != MAGIC || !in.readUTF().equals(key) || in.readInt() != image.length)
+            {
+                return false;
+            }
+            byte[] bytes = new byte[4 * image.length];
+            in.readFully(bytes);
+            ByteBuffer.wrap(bytes).asIntBuffer().get(image);
+        } catch (NoSuchFileException ex)
+        {
+            // evicted since it was looked up
+            return false;
+        } catch (IOException ex)
+        {
+            // most likely a file cut short, so it goes, unless it has been written again since
+            diskErrors.incrementAndGet();
+            synchronized (disk)
+            {
+                if (indexed.equals(disk.get(name)))
+                {
+                    removeDisk(name);
+                }
+            }
+            return false;
+        }
+        try
+        {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ex)
+        {
+            // evicted meanwhile, the image read is still good
+        }
+        return true;
+    }
+
+    // Compressed into a temporary file of its own without the disk lock, which is only held
+    // to move it into place and index it.
+    private void writeDisk(String key, int[] image)
+    {
+        final String name = fileName(key);
+        final byte[] bytes = new byte[4 * image.length];
+        ByteBuffer.wrap(bytes).asIntBuffer().put(image);
+        final Path file = directory.resolve(name);
+        Path temporary = null;
+        try
+        {
+            // to a temporary file first, so no one ever reads half an image
+            temporary = Files.createTempFile(directory, name, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(temporary)))))
+            {
+                out.writeInt(MAGIC);
+                out.writeUTF(key);
+                out.writeInt(image.length);
+                out.write(bytes);
+            }
+            final long size = Files.size(temporary);
+            synchronized (disk)
+            {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Long old = disk.put(name, size);
+                diskBytes += size - (old == null ? 0 : old);
+                evictDisk();
+            }
+        } catch (IOException ex)
+        {
+            diskErrors.incrementAndGet();
+            try
+            {
+                if (temporary != null)
+                {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException ignored)
+            {
+                // counted already
+            }
+        }
+    }
+
+    // Hold the disk lock
+    private void evictDisk()
+    {
+        Iterator<Map.Entry<String, Long>> oldest = disk.entrySet().iterator();
+        while (diskBytes > diskBudget && oldest.hasNext())
+        {
+            Map.Entry<String, Long> entry = oldest.next();
+            String name = entry.getKey();
+            diskBytes -= entry.getValue();
+            oldest.remove();
+            diskEvictions.incrementAndGet();
+            try
+            {
+                Files.deleteIfExists(directory.resolve(name));
+            } catch (IOException ex)
+            {
+                diskErrors.incrementAndGet();
+            }
+        }
+    }
+
+    // Hold the disk lock
+    private void removeDisk(String name)
+    {
+        Long size = disk.remove(name);
+        if (size != null)
+        {
+            diskBytes -= size;
+        }
+        try
+        {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException ex)
+        {
+            diskErrors.incrementAndGet();
+        }
+    }
+
+    // The key's SHA-256 in hex, keys themselves can be long and have any characters
+    private static String fileName(String key)
+    {
+        try
+        {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash)
+            {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException ex)
+        {
+            // every JVM has SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public long hits()
+    {
+        return memoryHits.get() + diskHits.get();
+    }
+
+    public long misses()
+    {
+        return misses.get();
+    }
+
+    public long evictions()
+    {
+        return memoryEvictions.get() + diskEvictions.get();
+    }
+
+    public void printReport(PrintStream out)
+    {
+        long memoryBytes, diskBytes;
+        int memoryEntries, diskEntries;
+        synchronized (memory)
+        {
+            memoryBytes = this.memoryBytes;
+            memoryEntries = memory.size();
+        }
+        synchronized (disk)
+        {
+            diskBytes = this.diskBytes;
+            diskEntries = disk.size();
+        }
+        out.printf("Cache: %d hits (%d memory, %d disk), %d misses, %d puts\n", hits(), memoryHits.get(),
+                diskHits.get(), misses.get(), puts.get());
+        out.printf("\tmemory: %d images, %.1f of %.1f MB, %d evicted, mean hit %.3f us\n", memoryEntries,
+                megabytes(memoryBytes), megabytes(memoryBudget), memoryEvictions.get(),
+                micros(memoryHitNanos.get(), memoryHits.get()));
+        if (directory != null)
+        {
+            out.printf("\tdisk: %d files in %s, %.1f of %.1f MB, %d evicted, mean hit %.3f us, %d errors\n",
+                    diskEntries, directory, megabytes(diskBytes), megabytes(diskBudget), diskEvictions.get(),
+                    micros(diskHitNanos.get(), diskHits.get()), diskErrors.get());
+        }
+    }
+
+    // The counts as one JSON object
+    public String toJson()
+    {
+        return String.format(Locale.ROOT, "{\"memoryHits\": %d, \"diskHits\": %d, \"misses\": %d, \"puts\": %d, "
+                        + "\"memoryEvictions\": %d, \"diskEvictions\": %d, \"diskErrors\": %d, "
+                        + "\"meanMemoryHitUs\": %.3f, \"meanDiskHitUs\": %.3f}",
+                memoryHits.get(), diskHits.get(), misses.get(), puts.get(), memoryEvictions.get(),
+                diskEvictions.get(), diskErrors.get(), micros(memoryHitNanos.get(), memoryHits.get()),
+                micros(diskHitNanos.get(), diskHits.get()));
+    }
+
+    private static double megabytes(long bytes)
+    {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    private static double micros(long nanos, long count)
+    {
+        return count == 0 ? 0 : nanos / 1e3 / count;
+    }
+}
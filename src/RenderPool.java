@@ -0,0 +1,192 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Phaser;
+
+// A fixed set of long-lived drawing threads that render one frame after another.
+// Starting a thread costs far more than drawing a small image, so instead of creating
+// and joining threads for every frame the workers park on a Phaser between frames.
+// Each frame goes through two phases: "start" releases every worker with its task and
+// "done" holds the caller until every worker has finished that task.
+// Work-stealing renderers run on a ForkJoinPool of the same size instead, which is only
+// created the first time one is used.
+public class RenderPool
+{
+    private final Thread[] workers;
+    private final Phaser phaser;
+    private ForkJoinPool forkJoinPool;
+
+    // Handed to the workers before the start phase, the Phaser makes them visible.
+    private volatile Runnable[] tasks;
+    private volatile boolean shutdown = false;
+    private volatile Throwable failure;
+
+    public RenderPool(int numberOfThreads)
+    {
+        // the workers plus the thread calling renderFrame
+        phaser = new Phaser(numberOfThreads + 1);
+        workers = new Thread[numberOfThreads];
+        for (int threadNumber = 0; threadNumber < numberOfThreads; threadNumber++)
+        {
+            final int index = threadNumber;
+            workers[threadNumber] = new Thread(() -> work(index),
+                    "Render Pool Thread: " + threadNumber + "/" + numberOfThreads);
+            workers[threadNumber].setDaemon(true);
+            workers[threadNumber].start();
+        }
+    }
+
+    public int size()
+    {
+        return workers.length;
+    }
+
+    // Run tasks[i] on worker i and wait for all of them to finish. There must be exactly
+    // one task per worker.
+    public void renderFrame(Runnable[] frameTasks)
+    {
+        if (frameTasks.length != workers.length)
+        {
+            throw new IllegalArgumentException(String.format("Got %d tasks for %d workers",
+                    frameTasks.length, workers.length));
+        }
+        if (shutdown)
+        {
+            throw new IllegalStateException("Render pool has been shut down");
+        }
+
+        tasks = frameTasks;
+        phaser.arriveAndAwaitAdvance(); // start
+        phaser.arriveAndAwaitAdvance(); // done
+        tasks = null;
+
+        Throwable t = failure;
+        if (t != null)
+        {
+            failure = null;
+            throw new IllegalStateException("A drawing task failed", t);
+        }
+    }
+
+    // Run a divide-and-conquer task on this pool's work-stealing threads and wait for it.
+    public void renderFrame(ForkJoinTask<?> frameTask)
+    {
+        if (shutdown)
+        {
+            throw new IllegalStateException("Render pool has been shut down");
+        }
+        forkJoinPool().invoke(frameTask);
+    }
+
+    private synchronized ForkJoinPool forkJoinPool()
+    {
+        if (forkJoinPool == null)
+        {
+            final boolean[] slots = new boolean[workers.length];
+            forkJoinPool = new ForkJoinPool(workers.length, pool -> new ForkJoinWorker(pool, slots), null, false);
+        }
+        return forkJoinPool;
+    }
+
+    // Let the workers exit once they are idle and wait for them.
+    public void shutdown()
+    {
+        if (shutdown)
+        {
+            return;
+        }
+        shutdown = true;
+        synchronized (this)
+        {
+            if (forkJoinPool != null)
+            {
+                forkJoinPool.shutdown();
+            }
+        }
+        phaser.arriveAndDeregister(); // releases the workers from their start phase
+
+        for (Thread t : workers)
+        {
+            try
+            {
+                t.join();
+            } catch (InterruptedException ex)
+            {
+                System.err.println("Execution was Interrupted!");
+            }
+        }
+    }
+
+    // The index, in [0, size()), of the calling thread if it is one of this kind of pool's
+    // fork/join threads. RenderStats.SPARE for a fork/join thread beyond size(), which the
+    // pool may add while its workers wait on joins, and RenderStats.CALLER for any other
+    // thread, such as the one that invoked the frame and helps with it.
+    static int forkJoinIndex()
+    {
+        Thread thread = Thread.currentThread();
+        return thread instanceof ForkJoinWorker ? ((ForkJoinWorker) thread).index : RenderStats.CALLER;
+    }
+
+    // A fork/join thread with an index no other live one has. An idle thread may be retired
+    // and replaced, so the index is taken from slots, the indices in use, and given back
+    // when the thread ends.
+    private static class ForkJoinWorker extends ForkJoinWorkerThread
+    {
+        private final boolean[] slots;
+        final int index;
+
+        ForkJoinWorker(ForkJoinPool pool, boolean[] slots)
+        {
+            super(pool);
+            this.slots = slots;
+            int free = RenderStats.SPARE;
+            synchronized (slots)
+            {
+                for (int i = 0; i < slots.length && free == RenderStats.SPARE; i++)
+                {
+                    if (!slots[i])
+                    {
+                        slots[i] = true;
+                        free = i;
+                    }
+                }
+            }
+            index = free;
+        }
+
+        @Override
+        protected void onTermination(Throwable exception)
+        {
+            if (index >= 0)
+            {
+                synchronized (slots)
+                {
+                    slots[index] = false;
+                }
+            }
+            super.onTermination(exception);
+        }
+    }
+
+    private void work(int index)
+    {
+        while (true)
+        {
+            phaser.arriveAndAwaitAdvance(); // start
+            if (shutdown)
+            {
+                return;
+            }
+
+            try
+            {
+                tasks[index].run();
+            } catch (Throwable t)
+            {
+                failure = t;
+            }
+
+            phaser.arriveAndAwaitAdvance(); // done
+        }
+    }
+}
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// What the threads did while WorkScheduler drew frames, collected while it is set with
+// WorkScheduler.useStats. For every thread, over all frames:
+//   busy time: time spent in its worker task (the fork/join model: in its tiles)
+//   items:     rows, blocks, pixels, pixel ranges or tiles it drew, per the model
+//   pixels:    pixels it drew (the scheduler's units, which are tiles with --store)
+//   polls:     times it asked a shared queue or dispenser for work, empty answers too
+// and for every frame its latency and imbalance, the busiest thread's busy time over the
+// mean busy time (1 is perfect balance). Besides the numberOfThreads workers there are
+// two more threads, counted only in frames where they did something: CALLER, the thread
+// that invoked a fork/join frame and ran tiles of it too, and SPARE, any fork/join
+// threads the pool added while its workers waited on joins.
+//
+// Every frame and every thread's share of it is also committed as a JFR event, seen
+// when the JVM runs with -XX:StartFlightRecording.
+public class RenderStats
+{
+    // The thread numbers record takes for the two threads besides the workers
+    static final int CALLER = -1;
+    static final int SPARE = -2;
+
+    private final String program;
+    private final int model;
+    private final int numberOfThreads;
+
+    // Per thread, totals over all frames, the workers' then CALLER's then SPARE's. Updated
+    // by the workers as they finish.
+    private final AtomicLongArray busy, items, pixels, polls;
+    // Per thread, this frame only
+    private final AtomicLongArray frameBusy, frameItems, framePixels, framePolls;
+
+    private long[] frameNanos = new long[16];
+    private double[] frameImbalance = new double[16];
+    private int frames = 0;
+    private long frameStart;
+
+    public RenderStats(String program, int model, int numberOfThreads)
+    {
+        this.program = program;
+        this.model = model;
+        this.numberOfThreads = numberOfThreads;
+        busy = new AtomicLongArray(numberOfThreads + 2);
+        items = new AtomicLongArray(numberOfThreads + 2);
+        pixels = new AtomicLongArray(numberOfThreads + 2);
+        polls = new AtomicLongArray(numberOfThreads + 2);
+        frameBusy = new AtomicLongArray(numberOfThreads + 2);
+        frameItems = new AtomicLongArray(numberOfThreads + 2);
+        framePixels = new AtomicLongArray(numberOfThreads + 2);
+        framePolls = new AtomicLongArray(numberOfThreads + 2);
+    }
+
+    public int numberOfThreads()
+    {
+        return numberOfThreads;
+    }
+
+    void beginFrame()
+    {
+        for (int t = 0; t < numberOfThreads + 2; t++)
+        {
+            frameBusy.set(t, 0);
+            frameItems.set(t, 0);
+            framePixels.set(t, 0);
+            framePolls.set(t, 0);
+        }
+        frameStart = System.nanoTime();
+    }
+
+    // Add work done by thread, a worker's index, CALLER or SPARE, during the current frame.
+    // Safe to call from any thread.
+    void record(int thread, long busyNanos, long itemCount, long pixelCount, long pollCount)
+    {
+        thread = slot(thread);
+        frameBusy.addAndGet(thread, busyNanos);
+        frameItems.addAndGet(thread, itemCount);
+        framePixels.addAndGet(thread, pixelCount);
+        framePolls.addAndGet(thread, pollCount);
+    }
+
+    void endFrame()
+    {
+        final long elapsed = System.nanoTime() - frameStart;
+
+        long maxBusy = 0, totalBusy = 0;
+        int counted = 0;
+        for (int t = 0; t < numberOfThreads + 2; t++)
+        {
+            long b = frameBusy.get(t);
+            if (t >= numberOfThreads && b == 0 && frameItems.get(t) == 0)
+            {
+                continue;
+            }
+            maxBusy = Math.max(maxBusy, b);
+            totalBusy += b;
+            counted++;
+            busy.addAndGet(t, b);
+            items.addAndGet(t, frameItems.get(t));
+            pixels.addAndGet(t, framePixels.get(t));
+            polls.addAndGet(t, framePolls.get(t));
+
+            ThreadEvent event = new ThreadEvent();
+            if (event.isEnabled())
+            {
+                event.program = program;
+                event.frame = frames;
+                event.thread = thread(t);
+                event.busy = b;
+                event.items = frameItems.get(t);
+                event.pixels = framePixels.get(t);
+                event.polls = framePolls.get(t);
+                event.commit();
+            }
+        }
+        final double imbalance = imbalance(maxBusy, totalBusy, counted);
+
+        FrameEvent event = new FrameEvent();
+        if (event.isEnabled())
+        {
+            event.program = program;
+            event.frame = frames;
+            event.model = model;
+            event.threads = numberOfThreads;
+            event.latency = elapsed;
+            event.imbalance = imbalance;
+            event.commit();
+        }
+
+        if (frames == frameNanos.length)
+        {
+            frameNanos = Arrays.copyOf(frameNanos, 2 * frames);
+            frameImbalance = Arrays.copyOf(frameImbalance, 2 * frames);
+        }
+        frameNanos[frames] = elapsed;
+        frameImbalance[frames] = imbalance;
+        frames++;
+    }
+
+    private static double imbalance(long maxBusy, long totalBusy, int threads)
+    {
+        return totalBusy == 0 ? 1.0 : maxBusy / ((double) totalBusy / threads);
+    }
+
+    // The busiest thread over the mean, over all frames
+    public double imbalance()
+    {
+        long maxBusy = 0, totalBusy = 0;
+        int counted = 0;
+        for (int t = 0; t < numberOfThreads + 2; t++)
+        {
+            if (t < numberOfThreads || didWork(t))
+            {
+                maxBusy = Math.max(maxBusy, busy.get(t));
+                totalBusy += busy.get(t);
+                counted++;
+            }
+        }
+        return imbalance(maxBusy, totalBusy, counted);
+    }
+
+    // The index into the arrays of thread, a worker's index, CALLER or SPARE
+    private int slot(int thread)
+    {
+        return thread == CALLER ? numberOfThreads : thread == SPARE ? numberOfThreads + 1 : thread;
+    }
+
+    // The inverse of slot
+    private int thread(int slot)
+    {
+        return slot == numberOfThreads ? CALLER : slot == numberOfThreads + 1 ? SPARE : slot;
+    }
+
+    // Whether the thread at slot did anything over all frames
+    private boolean didWork(int slot)
+    {
+        return busy.get(slot) != 0 || items.get(slot) != 0;
+    }
+
+    private String name(int slot)
+    {
+        return slot == numberOfThreads ? "caller" : slot == numberOfThreads + 1 ? "spare" : "thread " + slot;
+    }
+
+    // The frame latency below which the given fraction of frames fall, in nanoseconds
+    // (nearest rank).
+    public long latencyPercentile(double fraction)
+    {
+        if (frames == 0)
+        {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(frameNanos, frames);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(fraction * frames);
+        return sorted[Math.max(0, Math.min(frames, rank) - 1)];
+    }
+
+    public void printReport(PrintStream out)
+    {
+        out.printf("Stats: %d frames, latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms\n", frames,
+                millis(latencyPercentile(0.50)), millis(latencyPercentile(0.90)), millis(latencyPercentile(0.99)),
+                millis(latencyPercentile(1.0)));
+        for (int t = 0; t < numberOfThreads + 2; t++)
+        {
+            if (t < numberOfThreads || didWork(t))
+            {
+                out.printf("\t%s: busy %.3f ms, %d items, %d pixels, %d polls\n", name(t), millis(busy.get(t)),
+                        items.get(t), pixels.get(t), polls.get(t));
+            }
+        }
+        out.printf("\timbalance (max/mean busy): %.3f\n", imbalance());
+    }
+
+    // What main prints for --stats[=file]: the report, then the JSON summary written to
+    // jsonFile, or printed too if there is no file.
+    public void report(String jsonFile)
+    {
+        printReport(System.out);
+        if (jsonFile.isEmpty())
+        {
+            System.out.print(toJson());
+            return;
+        }
+        try
+        {
+            Files.writeString(Paths.get(jsonFile), toJson());
+            System.out.println("Wrote the stats to " + jsonFile);
+        } catch (IOException ex)
+        {
+            System.err.println("Cannot write the stats: " + ex);
+        }
+    }
+
+    // Everything as one JSON object
+    public String toJson()
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append(String.format(Locale.ROOT, "  \"program\": \"%s\",\n", program));
+        json.append(String.format(Locale.ROOT, "  \"model\": %d,\n", model));
+        json.append(String.format(Locale.ROOT, "  \"threads\": %d,\n", numberOfThreads));
+        json.append(String.format(Locale.ROOT, "  \"frames\": %d,\n", frames));
+        json.append(String.format(Locale.ROOT,
+                "  \"frameLatencyMs\": {\"p50\": %.6f, \"p90\": %.6f, \"p99\": %.6f, \"max\": %.6f, \"mean\": %.6f},\n",
+                millis(latencyPercentile(0.50)), millis(latencyPercentile(0.90)), millis(latencyPercentile(0.99)),
+                millis(latencyPercentile(1.0)), millis(meanLatency())));
+        json.append(String.format(Locale.ROOT, "  \"imbalance\": %.6f,\n", imbalance()));
+        // the workers by number, then "caller" and "spare" if they did anything
+        json.append("  \"perThread\": [");
+        for (int t = 0; t < numberOfThreads + 2; t++)
+        {
+            if (t < numberOfThreads || didWork(t))
+            {
+                json.append(String.format(Locale.ROOT,
+                        "%s\n    {\"thread\": %s, \"busyMs\": %.6f, \"items\": %d, \"pixels\": %d, \"polls\": %d}",
+                        t == 0 ? "" : ",", t < numberOfThreads ? Integer.toString(t) : "\"" + name(t) + "\"",
+                        millis(busy.get(t)), items.get(t), pixels.get(t), polls.get(t)));
+            }
+        }
+        json.append("\n  ],\n");
+        json.append("  \"frameImbalance\": [");
+        for (int f = 0; f < frames; f++)
+        {
+            json.append(String.format(Locale.ROOT, f == 0 ? "%.6f" : ", %.6f", frameImbalance[f]));
+        }
+        json.append("]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private double meanLatency()
+    {
+        long total = 0;
+        for (int f = 0; f < frames; f++)
+        {
+            total += frameNanos[f];
+        }
+        return frames == 0 ? 0 : (double) total / frames;
+    }
+
+    private static double millis(double nanos)
+    {
+        return nanos / 1e6;
+    }
+
+    @Name("hw1.RenderFrame")
+    @Label("Render Frame")
+    @Category("Rendering")
+    @Description("One frame drawn by WorkScheduler")
+    static class FrameEvent extends Event
+    {
+        @Label("Program")
+        String program;
+
+        @Label("Frame")
+        int frame;
+
+        @Label("Model")
+        int model;
+
+        @Label("Threads")
+        int threads;
+
+        @Label("Latency")
+        @Timespan
+        long latency;
+
+        @Label("Imbalance")
+        @Description("Busiest thread's busy time over the mean")
+        double imbalance;
+    }
+
+    @Name("hw1.RenderThread")
+    @Label("Render Thread")
+    @Category("Rendering")
+    @Description("One thread's share of a frame drawn by WorkScheduler")
+    static class ThreadEvent extends Event
+    {
+        @Label("Program")
+        String program;
+
+        @Label("Frame")
+        int frame;
+
+        @Label("Thread")
+        @Description("Worker index, or -1 for the caller and -2 for spare fork/join threads")
+        int thread;
+
+        @Label("Busy")
+        @Timespan
+        long busy;
+
+        @Label("Items")
+        long items;
+
+        @Label("Pixels")
+        long pixels;
+
+        @Label("Polls")
+        long polls;
+    }
+}
@@ -0,0 +1,8 @@
+// Draws part of one row of an image: the pixels in columns [colStart, colEnd) of the
+// given row. Whatever it draws and where it puts the result is up to the kernel, the
+// WorkScheduler only decides which thread draws which spans.
+@FunctionalInterface
+public interface SpanKernel
+{
+    void drawSpan(int row, int colStart, int colEnd);
+}
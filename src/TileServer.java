@@ -0,0 +1,454 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Serves Perlin noise and Julia set tiles as PNGs over HTTP, for map viewers, with the
+// usual zoom/x/y scheme: at zoom z the whole picture is 2^z x 2^z tiles, (0, 0) at the
+// top left.
+//   GET /perlin/z/x/y.png          the square [0, Perlin2D.WIDTH] that Perlin2D draws
+//   GET /julia/z/x/y.png?a=..&b=.. the default Julia view, deep zooms included
+//   GET /stats                     the counts below, and the cache's, as JSON
+//
+// Requests are handled one per virtual thread when the JVM has them (found by
+// reflection, so this still builds for Java 17) or else on a fixed pool of
+// HANDLER_THREADS platform threads. Handlers only wait: the drawing and PNG encoding
+// are done on a pool of as many platform threads as were asked for, so however many
+// requests there are the cores are never oversubscribed. Each render thread draws
+// straight into a BufferedImage of its own, so there are never more tile buffers than
+// render threads.
+//
+// Requests for a tile already being drawn wait for that drawing rather than starting
+// another (coalescing): the tiles in flight are a map from their keys to futures of
+// their PNGs. Once more than MAX_QUEUED_TILES tiles wait for a render thread new ones
+// are turned away with 503.
+public class TileServer
+{
+    private static final int MIN_PORT = 0;
+    private static final int MAX_PORT = 65535;
+    private static final int MIN_THREADS = 1;
+    private static final int MAX_THREADS = 32;
+    private static final int DEFAULT_TILE_SIZE = 256;
+    private static final int MIN_TILE_SIZE = 16;
+    private static final int MAX_TILE_SIZE = 1024;
+
+    // Deeper than this tile coordinates no longer fit a long (Julia) or the noise is
+    // nothing but smooth gradient (Perlin)
+    private static final int MAX_JULIA_ZOOM = 60;
+    private static final int MAX_PERLIN_ZOOM = 30;
+
+    private static final double DEFAULT_A = -0.8;
+    private static final double DEFAULT_B = 0.156;
+
+    // Request threads without virtual threads
+    public static int HANDLER_THREADS = 256;
+
+    // Tiles that may wait for a render thread
+    public static int MAX_QUEUED_TILES = 1024;
+
+    private final int tileSize;
+    private final RenderCache cache;
+    private final ThreadPoolExecutor renderPool;
+    private final ExecutorService handlers;
+    private final boolean virtualThreads;
+    private final HttpServer server;
+
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong(), renders = new AtomicLong(), coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong(), failed = new AtomicLong();
+
+    // The image each render thread draws into and encodes from
+    private final ThreadLocal<BufferedImage> images;
+
+    public static void main(String[] args)
+    {
+        if (args.length < 2)
+        {
+            printUsage("Must have 2 command line arguments (plus any options).");
+            System.exit(1);
+        }
+
+        int port, numberOfThreads, tileSize;
+        RenderCache cache;
+        try
+        {
+            port = parseInt(args[0], "port", MIN_PORT, MAX_PORT);
+            numberOfThreads = parseInt(args[1], "threads", MIN_THREADS, MAX_THREADS);
+            Options options = new Options(args, 2, "tile", "iterations", "cache", "cache-memory", "cache-disk");
+            tileSize = options.getInt("tile", DEFAULT_TILE_SIZE, MIN_TILE_SIZE, MAX_TILE_SIZE);
+            JuliaClassic.useIterations(options.getInt("iterations", JuliaClassic.MAX_ITERATIONS,
+                    JuliaClassic.MIN_ITERATIONS, JuliaClassic.MAX_MAX_ITERATIONS));
+            cache = RenderCache.fromOptions(options);
+        } catch (IllegalArgumentException ex)
+        {
+            printUsage(ex.getMessage());
+            System.exit(2);
+            return; // so java knows variables have been initialized
+        } catch (IOException ex)
+        {
+            System.err.println("Cannot use the cache: " + ex);
+            System.exit(3);
+            return;
+        }
+
+        try
+        {
+            TileServer server = new TileServer(port, numberOfThreads, tileSize, cache);
+            System.out.printf("Serving %d x %d tiles on port %d with %d render threads, requests on %s threads\n",
+                    tileSize, tileSize, server.port(), numberOfThreads, server.virtualThreads ? "virtual" : "platform");
+            System.out.println("\t/perlin/z/x/y.png, /julia/z/x/y.png?a=..&b=.., /stats");
+        } catch (IOException ex)
+        {
+            System.err.println("Cannot start the server: " + ex);
+            System.exit(3);
+        }
+    }
+
+    // Start serving on port (0 for any free one) with numberOfThreads render threads.
+    // cache may be null.
+    public TileServer(int port, int numberOfThreads, int tileSize, RenderCache cache) throws IOException
+    {
+        this.tileSize = tileSize;
+        this.cache = cache;
+        images = ThreadLocal.withInitial(() -> new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB));
+
+        final AtomicInteger created = new AtomicInteger();
+        renderPool = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_TILES), runnable ->
+                {
+                    Thread thread = new Thread(runnable, "Tile Render " + created.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        ExecutorService virtual = virtualThreadExecutor();
+        virtualThreads = virtual != null;
+        handlers = virtualThreads ? virtual : Executors.newFixedThreadPool(HANDLER_THREADS);
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/perlin/", exchange -> handle(exchange, false));
+        server.createContext("/julia/", exchange -> handle(exchange, true));
+        server.createContext("/stats", this::handleStats);
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() if this JVM has it (Java 21 on), else null
+    private static ExecutorService virtualThreadExecutor()
+    {
+        try
+        {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            return null;
+        }
+    }
+
+    public int port()
+    {
+        return server.getAddress().getPort();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        handlers.shutdown();
+        renderPool.shutdown();
+    }
+
+    private void handle(HttpExchange exchange, boolean julia) throws IOException
+    {
+        requests.incrementAndGet();
+        try
+        {
+            if (!exchange.getRequestMethod().equals("GET"))
+            {
+                send(exchange, 405, "text/plain", "Only GET\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            final Tile tile;
+            try
+            {
+                tile = parseTile(exchange, julia);
+            } catch (IllegalArgumentException ex)
+            {
+                send(exchange, 400, "text/plain", (ex.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            final byte[] png;
+            try
+            {
+                png = tile(tile).get();
+            } catch (ExecutionException ex)
+            {
+                if (ex.getCause() instanceof RejectedExecutionException)
+                {
+                    // this request's tile, or the one it was coalesced onto, never got queued
+                    rejected.incrementAndGet();
+                    send(exchange, 503, "text/plain", "Too many tiles waiting, try again\n".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                failed.incrementAndGet();
+                send(exchange, 500, "text/plain", (ex.getCause() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            } catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+            send(exchange, 200, "image/png", png);
+        } finally
+        {
+            exchange.close();
+        }
+    }
+
+    // The PNG of tile: the one being drawn if there is one, else a new drawing. Fails with
+    // a RejectedExecutionException if the render pool's queue is full.
+    private CompletableFuture<byte[]> tile(Tile tile)
+    {
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        final CompletableFuture<byte[]> drawing = inFlight.putIfAbsent(tile.key, future);
+        if (drawing != null)
+        {
+            coalesced.incrementAndGet();
+            return drawing;
+        }
+
+        try
+        {
+            renderPool.execute(() ->
+            {
+                try
+                {
+                    future.complete(render(tile));
+                } catch (Throwable t)
+                {
+                    future.completeExceptionally(t);
+                } finally
+                {
+                    // anyone who found it before this gets the result, anyone after draws again
+                    inFlight.remove(tile.key, future);
+                }
+            });
+        } catch (RejectedExecutionException ex)
+        {
+            // the requests coalesced onto it are turned away too
+            inFlight.remove(tile.key, future);
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    // On a render thread: draw (or fetch) the tile and encode it
+    private byte[] render(Tile tile) throws IOException
+    {
+        final BufferedImage image = images.get();
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        if (cache == null || !cache.get(tile.key, pixels))
+        {
+            renders.incrementAndGet();
+            tile.draw(pixels, tileSize);
+            if (cache != null)
+            {
+                cache.put(tile.key, pixels);
+            }
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", png))
+        {
+            throw new IOException("No PNG writer available");
+        }
+        return png.toByteArray();
+    }
+
+    // A tile to draw, and the key that names it
+    private abstract static class Tile
+    {
+        final String key;
+
+        Tile(String key)
+        {
+            this.key = key;
+        }
+
+        abstract void draw(int[] pixels, int size);
+    }
+
+    // /kind/z/x/y.png and, for Julia, ?a=..&b=..
+    private Tile parseTile(HttpExchange exchange, boolean julia)
+    {
+        final String[] parts = exchange.getRequestURI().getPath().split("/");
+        if (parts.length != 5 || !parts[4].endsWith(".png"))
+        {
+            throw new IllegalArgumentException("Tiles are /perlin/z/x/y.png or /julia/z/x/y.png");
+        }
+        final int z = parseInt(parts[2], "z", 0, julia ? MAX_JULIA_ZOOM : MAX_PERLIN_ZOOM);
+        final long tiles = 1L << z;
+        final long x = parseLong(parts[3], "x", 0, tiles - 1);
+        final long y = parseLong(parts[4].substring(0, parts[4].length() - 4), "y", 0, tiles - 1);
+
+        if (!julia)
+        {
+            // the tile's top left corner, y upwards as in Perlin2D
+            final double tileWidth = Perlin2D.WIDTH / tiles;
+            return new Tile(RenderCache.key("perlin-tile", "z", z, "x", x, "y", y, "size", tileSize))
+            {
+                @Override
+                void draw(int[] pixels, int size)
+                {
+                    PerlinDrawer.drawSquare(pixels, size, x * tileWidth, Perlin2D.HEIGHT - y * tileWidth,
+                            tileWidth / size);
+                }
+            };
+        }
+
+        double a = DEFAULT_A, b = DEFAULT_B;
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query != null)
+        {
+            for (String parameter : query.split("&"))
+            {
+                String[] nameValue = parameter.split("=", 2);
+                if (nameValue.length == 2 && nameValue[0].equals("a"))
+                {
+                    a = parseDouble(nameValue[1], "a", -1.0, 1.0);
+                }
+                else if (nameValue.length == 2 && nameValue[0].equals("b"))
+                {
+                    b = parseDouble(nameValue[1], "b", -1.0, 1.0);
+                }
+            }
+        }
+
+        // the tile's center, in double-double as deep tiles need every bit
+        final double width = Viewport.DEFAULT_WIDTH / tiles;
+        final double half = Viewport.DEFAULT_WIDTH / 2.0;
+        final Viewport view = new Viewport(
+                DoubleDouble.valueOf(x).add(0.5).multiply(DoubleDouble.valueOf(width)).add(-half),
+                DoubleDouble.valueOf(y).add(0.5).multiply(DoubleDouble.valueOf(width)).negate().add(half),
+                width);
+        final double ca = a, cb = b;
+        return new Tile(RenderCache.key("julia-tile", "a", a, "b", b, "z", z, "x", x, "y", y, "size", tileSize,
+                "iterations", JuliaClassic.iterations))
+        {
+            @Override
+            void draw(int[] pixels, int size)
+            {
+                JuliaClassic.drawJulia(view, pixels, ca, cb, size);
+            }
+        };
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            String json = String.format(Locale.ROOT, "{\"requests\": %d, \"renders\": %d, \"coalesced\": %d, "
+                            + "\"rejected\": %d, \"failed\": %d, \"inFlight\": %d, \"queued\": %d, "
+                            + "\"renderThreads\": %d, \"virtualThreads\": %b, \"cache\": %s}\n",
+                    requests.get(), renders.get(), coalesced.get(), rejected.get(), failed.get(), inFlight.size(),
+                    renderPool.getQueue().size(), renderPool.getCorePoolSize(), virtualThreads,
+                    cache == null ? "null" : cache.toJson());
+            send(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+        } finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    private static void printUsage(String errorMessage)
+    {
+        System.err.println(errorMessage);
+        System.err.println("The program arguments are:");
+        System.err.printf("\tport: the port to listen on, 0 for any free one [%d, %d]\n", MIN_PORT, MAX_PORT);
+        System.err.printf("\tthreads: the number of threads drawing tiles [%d, %d]\n", MIN_THREADS, MAX_THREADS);
+        System.err.println("The options are:");
+        System.err.printf("\t--tile=size: the width and height of the tiles (default %d) [%d, %d]\n",
+                DEFAULT_TILE_SIZE, MIN_TILE_SIZE, MAX_TILE_SIZE);
+        System.err.printf("\t--iterations=N: Julia iterations before a point is in the set (default %d)\n",
+                JuliaClassic.MAX_ITERATIONS);
+        RenderCache.printOptions(System.err, "\t");
+        System.err.printf("The tiles are /perlin/z/x/y.png (z up to %d) and /julia/z/x/y.png?a=..&b=.. (z up to %d,\n",
+                MAX_PERLIN_ZOOM, MAX_JULIA_ZOOM);
+        System.err.printf("a and b default to %s and %s), the counts are at /stats\n", DEFAULT_A, DEFAULT_B);
+    }
+
+    // The parse methods throw NumberFormatExceptions with a message fit for a 400
+    private static int parseInt(String s, String name, int min, int max)
+    {
+        return (int) parseLong(s, name, min, max);
+    }
+
+    private static long parseLong(String s, String name, long min, long max)
+    {
+        final long result;
+        try
+        {
+            result = Long.parseLong(s);
+        } catch (NumberFormatException ex)
+        {
+            throw new NumberFormatException(String.format("Value, %s, given for %s is not a number", s, name));
+        }
+        if (result < min || result > max)
+        {
+            throw new NumberFormatException(String.format("Value, %d, given for %s is not in the range [%d, %d]",
+                    result, name, min, max));
+        }
+        return result;
+    }
+
+    private static double parseDouble(String s, String name, double min, double max)
+    {
+        final double result;
+        try
+        {
+            result = Double.parseDouble(s);
+        } catch (NumberFormatException ex)
+        {
+            throw new NumberFormatException(String.format("Value, %s, given for %s is not a number", s, name));
+        }
+        if (!(result >= min && result <= max))
+        {
+            throw new NumberFormatException(String.format("Value, %f, given for %s is not in the range [%f, %f]",
+                    result, name, min, max));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// An image kept in a memory-mapped file instead of an int[], for images too big for the
+// heap (or for an int index: 64k x 64k is 2^32 pixels). The image is cut into square
+// tiles of tileSize x tileSize pixels and the file holds one tile after another, row of
+// tiles by row of tiles, each tile's pixels row by row as native-order 0xAARRGGBB ints.
+// Tiles on the right and bottom edges are padded out to a whole tile.
+//
+// Every row of tiles is mapped on its own, which keeps each mapping under the 2GB a
+// MappedByteBuffer can hold. Pages are written back by the OS when it wants, so the
+// heap only ever holds the tiles being drawn, whatever the size of the image.
+//
+// Different threads may put different tiles at the same time.
+public class TiledFrameStore implements AutoCloseable
+{
+    public static final int MAX_SIZE = 65536;
+    public static final int DEFAULT_TILE_SIZE = 256;
+    public static final int MIN_TILE_SIZE = 16;
+    public static final int MAX_TILE_SIZE = 4096;
+
+    private final int width, height, tileSize;
+    private final int tilesX, tilesY;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] bands;
+    // int views of bands, only used with absolute gets and puts so they can be shared
+    private final IntBuffer[] tileRows;
+
+    // Create (or overwrite) file to hold a width x height image.
+    public TiledFrameStore(Path file, int width, int height, int tileSize) throws IOException
+    {
+        if (width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE)
+        {
+            throw new IllegalArgumentException(String.format("Image of %d x %d is not in the range [1, %d]",
+                    width, height, MAX_SIZE));
+        }
+        if (tileSize < MIN_TILE_SIZE || tileSize > MAX_TILE_SIZE)
+        {
+            throw new IllegalArgumentException(String.format("Tile size, %d, is not in the range [%d, %d]",
+                    tileSize, MIN_TILE_SIZE, MAX_TILE_SIZE));
+        }
+
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+
+        long bandBytes = 4L * tilesX * tileSize * tileSize;
+        if (bandBytes > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(String.format("A row of %d tiles of %d pixels is too big to map",
+                    tilesX, tileSize));
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        bands = new MappedByteBuffer[tilesY];
+        tileRows = new IntBuffer[tilesY];
+        try
+        {
+            for (int ty = 0; ty < tilesY; ty++)
+            {
+                bands[ty] = channel.map(FileChannel.MapMode.READ_WRITE, ty * bandBytes, bandBytes);
+                tileRows[ty] = bands[ty].order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } catch (IOException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public int width()
+    {
+        return width;
+    }
+
+    public int height()
+    {
+        return height;
+    }
+
+    public int tileSize()
+    {
+        return tileSize;
+    }
+
+    public int tilesX()
+    {
+        return tilesX;
+    }
+
+    public int tilesY()
+    {
+        return tilesY;
+    }
+
+    // Store tile (tileX, tileY), pixels holds tileSize rows of tileSize pixels.
+    public void putTile(int tileX, int tileY, int[] pixels)
+    {
+        tileRows[tileY].put(tileX * tileSize * tileSize, pixels, 0, tileSize * tileSize);
+    }
+
+    // The pixels of tile (tileX, tileY), tileSize rows of tileSize pixels.
+    public void getTile(int tileX, int tileY, int[] pixels)
+    {
+        tileRows[tileY].get(tileX * tileSize * tileSize, pixels, 0, tileSize * tileSize);
+    }
+
+    public int pixel(int x, int y)
+    {
+        int tileX = x / tileSize;
+        return tileRows[y / tileSize].get((tileX * tileSize + y % tileSize) * tileSize + x % tileSize);
+    }
+
+    // Copy image row y into row[0, width).
+    public void readRow(int y, int[] row)
+    {
+        IntBuffer tiles = tileRows[y / tileSize];
+        int rowInTile = y % tileSize;
+        for (int tileX = 0; tileX < tilesX; tileX++)
+        {
+            int x = tileX * tileSize;
+            tiles.get((tileX * tileSize + rowInTile) * tileSize, row, x, Math.min(tileSize, width - x));
+        }
+    }
+
+    // Write the image as a binary PPM, one row at a time.
+    public void writePpm(Path file) throws IOException
+    {
+        byte[] header = String.format("P6\n%d %d\n255\n", width, height).getBytes(StandardCharsets.US_ASCII);
+        int[] row = new int[width];
+        ByteBuffer bytes = ByteBuffer.allocateDirect(3 * width);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer h = ByteBuffer.wrap(header);
+            while (h.hasRemaining())
+            {
+                out.write(h);
+            }
+            for (int y = 0; y < height; y++)
+            {
+                readRow(y, row);
+                bytes.clear();
+                for (int x = 0; x < width; x++)
+                {
+                    int rgb = row[x];
+                    bytes.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb);
+                }
+                bytes.flip();
+                while (bytes.hasRemaining())
+                {
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+
+    // Write every changed page back to the file.
+    public void flush()
+    {
+        for (MappedByteBuffer band : bands)
+        {
+            band.force();
+        }
+    }
+
+    // Flush and close the file. The mappings themselves go away once they are garbage.
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        channel.close();
+    }
+}
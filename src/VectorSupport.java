@@ -0,0 +1,13 @@
+// The SIMD kernels use the incubating Vector API, which only exists when the JVM was
+// started with --add-modules jdk.incubator.vector. Check AVAILABLE before touching any
+// of the vector kernel classes, they fail to load without the module.
+public class VectorSupport
+{
+    public static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    public static final String HOW_TO_ENABLE = "run java with --add-modules jdk.incubator.vector";
+
+    private VectorSupport()
+    {
+    }
+}
@@ -0,0 +1,123 @@
+// The square of the complex plane a Julia image shows: its center, in double-double so it
+// can be placed far more finely than a double allows, and its width, which is also its
+// height. Immutable, zooming and panning give a new Viewport.
+//
+// Once a pixel is smaller than DEEP_PIXEL_SIZE plain double math cannot tell neighbouring
+// pixels apart well enough any more (the orbits live around |z| ~ 1, where a double has
+// 2^-52 of precision, and every iteration amplifies the error), so JuliaClassic hands
+// such views to JuliaDeepZoom.
+public final class Viewport
+{
+    public static final double DEFAULT_WIDTH = 3.25;
+    public static final Viewport DEFAULT = new Viewport(DoubleDouble.ZERO, DoubleDouble.ZERO, DEFAULT_WIDTH);
+
+    // Double-double has about 32 digits, leave a few for telling pixels apart
+    public static final double MIN_WIDTH = 1e-28;
+    public static final double MAX_WIDTH = 16.0;
+
+    // Views with smaller pixels are drawn by perturbation
+    public static final double DEEP_PIXEL_SIZE = 1e-12;
+
+    private final DoubleDouble centerX, centerY;
+    private final double width;
+
+    public Viewport(DoubleDouble centerX, DoubleDouble centerY, double width)
+    {
+        if (!(width >= MIN_WIDTH && width <= MAX_WIDTH))
+        {
+            throw new IllegalArgumentException(String.format("Width, %g, is not in the range [%g, %g]",
+                    width, MIN_WIDTH, MAX_WIDTH));
+        }
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.width = width;
+    }
+
+    // The view centered on (x, y), given as decimal strings of any length, zoomed in by zoom
+    // from the default width.
+    public static Viewport of(String x, String y, double zoom)
+    {
+        return new Viewport(DoubleDouble.parse(x), DoubleDouble.parse(y), DEFAULT_WIDTH / zoom);
+    }
+
+    public DoubleDouble centerX()
+    {
+        return centerX;
+    }
+
+    public DoubleDouble centerY()
+    {
+        return centerY;
+    }
+
+    public double width()
+    {
+        return width;
+    }
+
+    // The width of one pixel of a size x size image
+    public double pixelSize(int size)
+    {
+        return width / size;
+    }
+
+    // Whether a size x size image needs JuliaDeepZoom
+    public boolean isDeep(int size)
+    {
+        return pixelSize(size) < DEEP_PIXEL_SIZE;
+    }
+
+    public boolean isCenteredOnOrigin()
+    {
+        return centerX.equals(DoubleDouble.ZERO) && centerY.equals(DoubleDouble.ZERO);
+    }
+
+    // The same center, factor times closer
+    public Viewport zoom(double factor)
+    {
+        return new Viewport(centerX, centerY, width / factor);
+    }
+
+    // Moved right by columns and down by rows pixels of a size x size image
+    public Viewport pan(double columns, double rows, int size)
+    {
+        return new Viewport(centerX.add(columns * pixelSize(size)), centerY.add(-rows * pixelSize(size)), width);
+    }
+
+    // Centered on pixel (column, row) of a size x size image, factor times closer
+    public Viewport zoomAt(double column, double row, int size, double factor)
+    {
+        return pan(column - size / 2.0, row - size / 2.0, size).zoom(factor);
+    }
+
+    // factor times closer, with the point at pixel (column, row) of a size x size image
+    // staying where it is
+    public Viewport zoomAround(double column, double row, int size, double factor)
+    {
+        return zoomAt(column, row, size, factor).pan(size / 2.0 - column, size / 2.0 - row, size);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof Viewport))
+        {
+            return false;
+        }
+        Viewport v = (Viewport) o;
+        return v.width == width && v.centerX.equals(centerX) && v.centerY.equals(centerY);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (centerX.hashCode() * 31 + centerY.hashCode()) * 31 + Double.hashCode(width);
+    }
+
+    // "x,y,width"
+    @Override
+    public String toString()
+    {
+        return centerX + "," + centerY + "," + width;
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands out ranges of work items [start, end(start)) from a single atomic cursor. Nothing
+// is allocated per item, unlike a queue of boxed Integers, and each claim is one CAS.
+// Ranges are guided: a claim takes 1/(GUIDED_FACTOR * threads) of the work that is still
+// left (but never less than minChunk), so claims are big and rare at the start and small
+// near the end where they are needed to even out the threads.
+public class WorkDispenser
+{
+    private static final int GUIDED_FACTOR = 2;
+
+    private final AtomicLong cursor = new AtomicLong();
+    private final long totalItems;
+    private final long divisor;
+    private final long minChunk;
+
+    public WorkDispenser(long totalItems, int numberOfThreads, int minChunk)
+    {
+        this.totalItems = totalItems;
+        this.divisor = (long) GUIDED_FACTOR * numberOfThreads;
+        this.minChunk = Math.max(1, minChunk);
+    }
+
+    // Claim the next range and return its start, or -1 once everything has been handed out.
+    // The range ends at end(start).
+    public long next()
+    {
+        while (true)
+        {
+            long start = cursor.get();
+            if (start >= totalItems)
+            {
+                return -1;
+            }
+            if (cursor.compareAndSet(start, end(start)))
+            {
+                return start;
+            }
+        }
+    }
+
+    // The (exclusive) end of the range starting at start. The chunk size only depends on
+    // how much work remains after start so it does not have to be handed back by next().
+    public long end(long start)
+    {
+        long remaining = totalItems - start;
+        long chunk = Math.max(minChunk, (remaining + divisor - 1) / divisor);
+        return Math.min(totalItems, start + chunk);
+    }
+}
@@ -0,0 +1,685 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveAction;
+
+// The work distribution models, shared by every renderer. A frame is a width x height
+// grid of pixels that a SpanKernel knows how to draw; the model decides how the rows,
+// blocks of rows, pixels or tiles are divided among the threads of a RenderPool.
+public class WorkScheduler
+{
+    public static final int ROW_STRIDE = 1;
+    public static final int BLOCK_STRIDE = 2;
+    public static final int PIXEL_STRIDE = 3;
+    public static final int NEXT_FREE_ROW = 4;
+    public static final int NEXT_FREE_PIXEL = 5;
+    public static final int NEXT_FREE_BLOCK = 6;
+    public static final int GUIDED_NEXT_FREE = 7;
+    public static final int FORK_JOIN_TILES = 8;
+
+    public static final int MIN_MODEL = ROW_STRIDE;
+    public static final int MAX_MODEL = FORK_JOIN_TILES;
+
+    private static final String[] MODEL_NAMES = {
+            "Row Stride",
+            "Block Stride",
+            "Pixel Stride",
+            "Next Free Row",
+            "Next Free Pixel",
+            "Next Free Block",
+            "Guided Next Free (shrinking pixel ranges)",
+            "Fork/Join Tiles (work stealing)",
+    };
+
+    // parameters of our thread models (not final so benchmarks can vary them)
+    // A block is BLOCK_WIDTH x BLOCK_SIZE pixels, or BLOCK_SIZE whole rows if BLOCK_WIDTH
+    // is WHOLE_ROWS. The block models take blocks in Hilbert order, see BlockOrder.
+    public static final int WHOLE_ROWS = 0;
+    public static int BLOCK_SIZE = 2;
+    public static int BLOCK_WIDTH = WHOLE_ROWS;
+    public static final int MIN_BLOCK = 1;
+    public static final int MAX_BLOCK = 4096;
+    public static int GUIDED_MIN_CHUNK = 64;
+    public static int TILE_THRESHOLD = 64;
+
+    // Where the workers report what they did, if anywhere
+    private static volatile RenderStats stats = null;
+
+    private WorkScheduler()
+    {
+    }
+
+    public static RenderStats stats()
+    {
+        return stats;
+    }
+
+    // Collect RenderStats for every frame drawn from now on, or stop with null. stats must
+    // have a slot for every thread of the pools that will be used.
+    public static void useStats(RenderStats renderStats)
+    {
+        stats = renderStats;
+    }
+
+    // Set BLOCK_WIDTH and BLOCK_SIZE from --block: H for blocks of H whole rows, WxH for
+    // W x H tiles. Without the option they are left as they are.
+    public static void useBlocks(Options options)
+    {
+        if (!options.has("block"))
+        {
+            return;
+        }
+        final String value = options.get("block", "");
+        final String[] sides = value.split("x", -1);
+        if (sides.length > 2)
+        {
+            throw new IllegalArgumentException(String.format("Value, %s, given for --block is not H or WxH", value));
+        }
+        final int width = sides.length == 2 ? parseBlockSide(sides[0], value) : WHOLE_ROWS;
+        BLOCK_SIZE = parseBlockSide(sides[sides.length - 1], value);
+        BLOCK_WIDTH = width;
+    }
+
+    private static int parseBlockSide(String side, String value)
+    {
+        final int result;
+        try
+        {
+            result = Integer.parseInt(side);
+        } catch (NumberFormatException ex)
+        {
+            throw new NumberFormatException(String.format("Value, %s, given for --block is not H or WxH", value));
+        }
+        if (result < MIN_BLOCK || result > MAX_BLOCK)
+        {
+            throw new NumberFormatException(String.format("Value, %d, given for a side of --block is not in the range [%d, %d]",
+                    result, MIN_BLOCK, MAX_BLOCK));
+        }
+        return result;
+    }
+
+    // The usage lines for --block, indented by indent.
+    public static void printBlockOption(PrintStream out, String indent)
+    {
+        out.printf(indent + "--block=H|WxH: blocks of the block models, H whole rows or W x H tiles taken in Hilbert\n");
+        out.printf(indent + "\torder (default %d rows) [%d, %d]\n", BLOCK_SIZE, MIN_BLOCK, MAX_BLOCK);
+    }
+
+    public static String modelName(int model)
+    {
+        return MODEL_NAMES[model - MIN_MODEL];
+    }
+
+    // The usage lines for the model argument, indented by indent.
+    public static void printModels(PrintStream out, String indent)
+    {
+        for (int model = MIN_MODEL; model <= MAX_MODEL; model++)
+        {
+            out.println(indent + model + ": " + modelName(model));
+        }
+    }
+
+    // Draw every pixel of a width x height frame with the kernel, dividing the work among
+    // the pool's threads according to model. With no pool the calling thread draws the
+    // frame row by row.
+    public static void drawFrame(RenderPool pool, SpanKernel kernel, int width, int height, int model)
+    {
+        drawFrame(pool, kernel, width, height, model, null);
+    }
+
+    // A frame that another thread may stop before it is done, by calling cancel. The
+    // workers stop at the next item they would have taken (ScheduledWorker.stopRunning),
+    // the fork/join tiles and the single thread at the next tile or row, so drawFrame
+    // returns after at most one item's worth of drawing per thread. One per frame.
+    public static final class Cancel
+    {
+        private volatile boolean cancelled = false;
+        private volatile ScheduledWorker[] workers;
+
+        public void cancel()
+        {
+            cancelled = true;
+            stop(workers);
+        }
+
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        // Called with the frame's workers before they start. Both this and cancel write
+        // their field before reading the other's, so whichever comes second stops them.
+        void attach(ScheduledWorker[] frameWorkers)
+        {
+            workers = frameWorkers;
+            if (cancelled)
+            {
+                stop(frameWorkers);
+            }
+        }
+
+        private static void stop(ScheduledWorker[] workers)
+        {
+            if (workers != null)
+            {
+                for (ScheduledWorker worker : workers)
+                {
+                    worker.stopRunning();
+                }
+            }
+        }
+    }
+
+    // drawFrame, stopping early if cancel (which may be null) is cancelled. Returns false
+    // if it was, in which case any of the pixels may not have been drawn.
+    public static boolean drawFrame(RenderPool pool, SpanKernel kernel, int width, int height, int model,
+                                    Cancel cancel)
+    {
+        final RenderStats s = stats;
+        if (s != null)
+        {
+            s.beginFrame();
+        }
+
+        // single-threaded
+        if (pool == null)
+        {
+            final long start = System.nanoTime();
+            for (int row = 0; row < height && (cancel == null || !cancel.isCancelled()); row++)
+            {
+                kernel.drawSpan(row, 0, width);
+            }
+            if (s != null)
+            {
+                s.record(0, System.nanoTime() - start, height, (long) width * height, 0);
+            }
+        }
+
+        // fork/join tiles, balanced by work stealing
+        else if (model == FORK_JOIN_TILES)
+        {
+            pool.renderFrame(new TileTask(kernel, 0, 0, width, height, s, cancel));
+        }
+
+        else
+        {
+            final ScheduledWorker[] workers = createWorkers(pool.size(), kernel, width, height, model, s);
+            if (cancel != null)
+            {
+                cancel.attach(workers);
+            }
+            pool.renderFrame(workers);
+        }
+
+        if (s != null)
+        {
+            s.endFrame();
+        }
+        return cancel == null || !cancel.isCancelled();
+    }
+
+    // The item numbers 0, 1, 2, ... boxed, for the queues of the next-free models. Shared by
+    // every frame, an Integer never changes, and grown to the most items a frame has had.
+    private static volatile Integer[] boxedItems = new Integer[0];
+
+    private static Integer[] boxedItems(int count)
+    {
+        Integer[] boxed = boxedItems;
+        if (boxed.length < count)
+        {
+            Integer[] grown = Arrays.copyOf(boxed, count);
+            for (int i = boxed.length; i < count; i++)
+            {
+                grown[i] = i;
+            }
+            boxedItems = boxed = grown;
+        }
+        return boxed;
+    }
+
+    // One worker per thread for the thread-per-worker models (all but fork/join).
+    static ScheduledWorker[] createWorkers(int numberOfThreads, SpanKernel kernel, int width, int height, int model,
+                                           RenderStats stats)
+    {
+        // if needed, create lists of items (rows, blocks, pixels) and pass them
+        // to the worker threads.
+        int numItems;
+        // next free row
+        if (model == NEXT_FREE_ROW)
+        {
+            numItems = height;
+        }
+        // next free pixel
+        else if (model == NEXT_FREE_PIXEL)
+        {
+            numItems = width * height;
+        }
+        // next free block
+        else if (model == NEXT_FREE_BLOCK)
+        {
+            numItems = BlockOrder.of(width, height).blocks();
+        }
+        else numItems = 0;
+
+        // the queue's nodes are still new every frame, the queue models are kept as the
+        // baseline GUIDED_NEXT_FREE is measured against, but the Integers in it are not
+        ConcurrentLinkedQueue<Integer> items = null;
+        if (numItems > 0)
+        {
+            items = new ConcurrentLinkedQueue<>(Arrays.asList(boxedItems(numItems)).subList(0, numItems));
+        }
+
+        // the blocks of the block models, and the order they are taken in
+        final BlockOrder blocks = model == BLOCK_STRIDE || model == NEXT_FREE_BLOCK ? BlockOrder.of(width, height) : null;
+
+        // guided next free pixels come from a shared cursor instead of a queue
+        WorkDispenser dispenser = null;
+        if (model == GUIDED_NEXT_FREE)
+        {
+            dispenser = new WorkDispenser((long) width * height, numberOfThreads, GUIDED_MIN_CHUNK);
+        }
+
+        final ScheduledWorker[] workers = new ScheduledWorker[numberOfThreads];
+        for (int threadNumber = 0; threadNumber < numberOfThreads; threadNumber++)
+        {
+            // X-STRIDE TYPE MODELS
+            if (model == ROW_STRIDE || model == BLOCK_STRIDE || model == PIXEL_STRIDE)
+            {
+                workers[threadNumber] = new StrideWorker(kernel, width, height, numberOfThreads, threadNumber, model,
+                        blocks);
+            }
+            // GUIDED NEXT FREE
+            else if (model == GUIDED_NEXT_FREE)
+            {
+                workers[threadNumber] = new GuidedWorker(kernel, width, height, numberOfThreads, threadNumber, dispenser);
+            }
+            // NEXT-FREE-X TYPE MODELS
+            else
+            {
+                workers[threadNumber] = new NextFreeWorker(kernel, width, height, numberOfThreads, threadNumber, model,
+                        items, blocks);
+            }
+        }
+        for (ScheduledWorker worker : workers)
+        {
+            worker.stats = stats;
+        }
+        return workers;
+    }
+
+    // Draw the rows of the given block, the block'th in order, returning the number of
+    // pixels drawn
+    private static int drawBlock(SpanKernel kernel, BlockOrder order, int block)
+    {
+        final int index = order.block(block);
+        final int startCol = (index % order.blocksX) * order.blockWidth;
+        final int startRow = (index / order.blocksX) * order.blockHeight;
+        final int endCol = Math.min(startCol + order.blockWidth, order.width);
+        final int endRow = Math.min(startRow + order.blockHeight, order.height);
+        for (int row = startRow; row < endRow; row++)
+        {
+            kernel.drawSpan(row, startCol, endCol);
+        }
+        return (endRow - startRow) * (endCol - startCol);
+    }
+
+    // The blocks of a width x height frame and the order the block models take them in.
+    // Whole-row blocks go top to bottom. Tiles go along a Hilbert curve, which only ever
+    // steps to a neighbouring tile, so the tiles taken one after another (by a thread, or
+    // by the threads together) keep sharing the rows of the buffer, and for Perlin noise
+    // the lattice gradients, that the ones before them brought into the cache. The curve
+    // covers the smallest power-of-two square holding every tile, and the tiles outside the
+    // frame are left out. The last order made is kept, as frames usually come one size.
+    static final class BlockOrder
+    {
+        final int width, height, blockWidth, blockHeight;
+        final int blocksX, blocksY;
+        // block indices (column + row * blocksX) in the order they are taken, null for top
+        // to bottom
+        private final int[] order;
+
+        private static volatile BlockOrder last = null;
+
+        private BlockOrder(int width, int height, int blockWidth, int blockHeight)
+        {
+            this.width = width;
+            this.height = height;
+            this.blockWidth = blockWidth;
+            this.blockHeight = blockHeight;
+            blocksX = (width + blockWidth - 1) / blockWidth;
+            blocksY = (height + blockHeight - 1) / blockHeight;
+            if (blocksX == 1 || blocksY == 1)
+            {
+                order = null;
+                return;
+            }
+
+            int side = Integer.highestOneBit(Math.max(blocksX, blocksY) - 1) << 1;
+            order = new int[blocksX * blocksY];
+            int next = 0;
+            for (int d = 0; d < side * side; d++)
+            {
+                // Hilbert curve distance d to (x, y), a quadrant at a time from the smallest
+                int x = 0, y = 0;
+                for (int s = 1, t = d; s < side; s *= 2, t /= 4)
+                {
+                    int rx = 1 & (t / 2);
+                    int ry = 1 & (t ^ rx);
+                    if (ry == 0)
+                    {
+                        if (rx == 1)
+                        {
+                            x = s - 1 - x;
+                            y = s - 1 - y;
+                        }
+                        int swap = x;
+                        x = y;
+                        y = swap;
+                    }
+                    x += s * rx;
+                    y += s * ry;
+                }
+                if (x < blocksX && y < blocksY)
+                {
+                    order[next++] = x + y * blocksX;
+                }
+            }
+        }
+
+        // The blocks of a width x height frame with the current BLOCK_WIDTH and BLOCK_SIZE
+        static BlockOrder of(int width, int height)
+        {
+            final int blockWidth = BLOCK_WIDTH == WHOLE_ROWS ? width : Math.min(BLOCK_WIDTH, width);
+            final int blockHeight = Math.min(BLOCK_SIZE, height);
+            BlockOrder blocks = last;
+            if (blocks == null || blocks.width != width || blocks.height != height
+                    || blocks.blockWidth != blockWidth || blocks.blockHeight != blockHeight)
+            {
+                blocks = new BlockOrder(width, height, blockWidth, blockHeight);
+                last = blocks;
+            }
+            return blocks;
+        }
+
+        int blocks()
+        {
+            return blocksX * blocksY;
+        }
+
+        // The index of the i'th block taken
+        int block(int i)
+        {
+            return order == null ? i : order[i];
+        }
+    }
+
+    // The base of the thread-per-worker models. Deferred cancellation: stopRunning makes
+    // the worker stop at the next item it would have taken. The subclasses count what they
+    // do in items, pixels and polls as they go, and run reports it to stats if there are
+    // any.
+    abstract static class ScheduledWorker implements Runnable
+    {
+        volatile boolean running = true;
+        final SpanKernel kernel;
+        final int width, height;
+        final int numberOfThreads, threadIndex;
+        RenderStats stats;
+        long items, pixels, polls;
+
+        ScheduledWorker(SpanKernel kernel, int width, int height, int numberOfThreads, int threadIndex)
+        {
+            this.kernel = kernel;
+            this.width = width;
+            this.height = height;
+            this.numberOfThreads = numberOfThreads;
+            this.threadIndex = threadIndex;
+        }
+
+        public void stopRunning()
+        {
+            running = false;
+        }
+
+        @Override
+        public final void run()
+        {
+            final long start = System.nanoTime();
+            items = pixels = polls = 0;
+            draw();
+            if (stats != null)
+            {
+                stats.record(threadIndex, System.nanoTime() - start, items, pixels, polls);
+            }
+        }
+
+        // The drawing code
+        abstract void draw();
+    }
+
+    // X-STRIDE WORKER MODEL
+    private static class StrideWorker extends ScheduledWorker
+    {
+        // Model-specific params
+        private final int strideType;
+        private final BlockOrder blocks;
+
+        StrideWorker(SpanKernel kernel, int width, int height, int numberOfThreads, int threadIndex, int strideType,
+                     BlockOrder blocks)
+        {
+            super(kernel, width, height, numberOfThreads, threadIndex);
+            this.strideType = strideType;
+            this.blocks = blocks;
+        }
+
+        @Override
+        void draw()
+        {
+            // ROW STRIDE
+            if (strideType == ROW_STRIDE)
+            {
+                // Keep drawing rows as long as we are not done and are still running
+                for (int row = threadIndex; running && row < height; row += numberOfThreads)
+                {
+                    kernel.drawSpan(row, 0, width);
+                    items++;
+                    pixels += width;
+                }
+            }
+
+            // BLOCK STRIDE
+            else if (strideType == BLOCK_STRIDE)
+            {
+                int num_blocks = blocks.blocks();
+                for (int block = threadIndex; running && block < num_blocks; block += numberOfThreads)
+                {
+                    pixels += drawBlock(kernel, blocks, block);
+                    items++;
+                }
+            }
+
+            // PIXEL STRIDE
+            else if (strideType == PIXEL_STRIDE)
+            {
+                int num_pixels = width * height;
+                for (int pixel_id = threadIndex; pixel_id < num_pixels && running; pixel_id += numberOfThreads)
+                {
+                    int col = pixel_id % width;
+                    int row = pixel_id / width;
+
+                    kernel.drawSpan(row, col, col + 1);
+                    items++;
+                    pixels++;
+                }
+            }
+        }
+    }
+
+    // NEXT-FREE-X WORKER MODEL
+    private static class NextFreeWorker extends ScheduledWorker
+    {
+        private final int itemType;
+        private final ConcurrentLinkedQueue<Integer> itemList;
+        private final BlockOrder blocks;
+
+        NextFreeWorker(SpanKernel kernel, int width, int height, int numberOfThreads, int threadIndex,
+                       int itemType, ConcurrentLinkedQueue<Integer> itemList, BlockOrder blocks)
+        {
+            super(kernel, width, height, numberOfThreads, threadIndex);
+            this.itemType = itemType;
+            this.itemList = itemList;
+            this.blocks = blocks;
+        }
+
+        private Integer poll()
+        {
+            polls++;
+            return itemList.poll();
+        }
+
+        @Override
+        void draw()
+        {
+            // NEXT FREE ROW
+            if (itemType == NEXT_FREE_ROW)
+            {
+                // itemList contains all rows
+                Integer row;
+                while ((row = poll()) != null && running)
+                {
+                    kernel.drawSpan(row, 0, width);
+                    items++;
+                    pixels += width;
+                }
+            }
+
+            // NEXT FREE PIXEL
+            else if (itemType == NEXT_FREE_PIXEL)
+            {
+                Integer pixel_id;
+                while ((pixel_id = poll()) != null && running)
+                {
+                    int col = pixel_id % width;
+                    int row = pixel_id / width;
+
+                    kernel.drawSpan(row, col, col + 1);
+                    items++;
+                    pixels++;
+                }
+            }
+
+            // NEXT FREE BLOCK
+            else if (itemType == NEXT_FREE_BLOCK)
+            {
+                Integer block;
+                while ((block = poll()) != null && running)
+                {
+                    pixels += drawBlock(kernel, blocks, block);
+                    items++;
+                }
+            }
+        }
+    }
+
+    // GUIDED NEXT FREE WORKER MODEL
+    private static class GuidedWorker extends ScheduledWorker
+    {
+        private final WorkDispenser dispenser;
+
+        GuidedWorker(SpanKernel kernel, int width, int height, int numberOfThreads, int threadIndex,
+                     WorkDispenser dispenser)
+        {
+            super(kernel, width, height, numberOfThreads, threadIndex);
+            this.dispenser = dispenser;
+        }
+
+        private long next()
+        {
+            polls++;
+            return dispenser.next();
+        }
+
+        @Override
+        void draw()
+        {
+            long start;
+            while ((start = next()) >= 0 && running)
+            {
+                long end = dispenser.end(start);
+                items++;
+                pixels += end - start;
+                // the range may cover the end of one row and the start of others
+                for (long pixel_id = start; pixel_id < end; )
+                {
+                    int row = (int) (pixel_id / width);
+                    int col = (int) (pixel_id % width);
+                    int endCol = (int) Math.min(width, col + (end - pixel_id));
+                    kernel.drawSpan(row, col, endCol);
+                    pixel_id += endCol - col;
+                }
+            }
+        }
+    }
+
+    // FORK/JOIN TILE MODEL
+    // Splits its tile in half along the longer side until it is no bigger than
+    // TILE_THRESHOLD x TILE_THRESHOLD, then draws it. Idle threads steal the halves.
+    private static class TileTask extends RecursiveAction
+    {
+        private final SpanKernel kernel;
+        private final int startCol, startRow, endCol, endRow;
+        private final RenderStats stats;
+        private final Cancel cancel;
+
+        TileTask(SpanKernel kernel, int startCol, int startRow, int endCol, int endRow, RenderStats stats,
+                 Cancel cancel)
+        {
+            this.kernel = kernel;
+            this.startCol = startCol;
+            this.startRow = startRow;
+            this.endCol = endCol;
+            this.endRow = endRow;
+            this.stats = stats;
+            this.cancel = cancel;
+        }
+
+        private TileTask half(int startCol, int startRow, int endCol, int endRow)
+        {
+            return new TileTask(kernel, startCol, startRow, endCol, endRow, stats, cancel);
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (cancel != null && cancel.isCancelled())
+            {
+                return;
+            }
+            int width = endCol - startCol;
+            int height = endRow - startRow;
+
+            if (width <= TILE_THRESHOLD && height <= TILE_THRESHOLD)
+            {
+                final long start = System.nanoTime();
+                for (int row = startRow; row < endRow; row++)
+                {
+                    kernel.drawSpan(row, startCol, endCol);
+                }
+                if (stats != null)
+                {
+                    // tiles the caller ends up running itself count as the caller's
+                    stats.record(RenderPool.forkJoinIndex(), System.nanoTime() - start, 1, (long) width * height, 0);
+                }
+            }
+            else if (width >= height)
+            {
+                int mid = startCol + width / 2;
+                invokeAll(half(startCol, startRow, mid, endRow), half(mid, startRow, endCol, endRow));
+            }
+            else
+            {
+                int mid = startRow + height / 2;
+                invokeAll(half(startCol, startRow, endCol, mid), half(startCol, mid, endCol, endRow));
+            }
+        }
+    }
+}